@@ -0,0 +1,90 @@
+package space.crickets.authorize.benchmarks;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import space.crickets.authorize.aop.AuthorizeAdvice;
+import space.crickets.authorize.aop.VerifiedTokenCache;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.FastJwtParser;
+
+import java.time.Duration;
+
+/**
+ * What does a call through an @Authorize method cost, end to end? That's real JWT parsing and RS256 signature
+ * verification, plus whatever AuthorizeAdvice does around it, through a real Spring AOP proxy.
+ */
+@State(Scope.Benchmark)
+public class AuthorizeAdviceBenchmark {
+    private static final String NAME = "Roger";
+    private static final int AGE = 14;
+
+    // 0 turns the verified-token cache off.
+    @Param({"0", "10000"})
+    public long verifiedTokenCacheSize;
+
+    // FastJwtParser instead of jjwt's.
+    @Param({"false", "true"})
+    public boolean fastPathParser;
+
+    private BenchmarkKeys keys;
+    private AuthorizeSigningKeyResolver resolver;
+    private BenchmarkController controller;
+    private String token;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        keys = new BenchmarkKeys();
+        resolver = keys.resolver();
+        token = keys.rs256Token(BenchmarkKeys.claims(NAME, AGE, "greeting.read"));
+
+        JwtParser jwtParser = Jwts.parserBuilder()
+                .setSigningKeyResolver(resolver)
+                .build();
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new BenchmarkController());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(new AuthorizeAdvice(
+                jwtParser,
+                fastPathParser ? new FastJwtParser(resolver) : FastJwtParser.disabled(),
+                new VerifiedTokenCache(verifiedTokenCacheSize, Duration.ofMinutes(5)),
+                AuthorizeMetrics.NOOP,
+                resolver
+        ));
+        controller = proxyFactory.getProxy();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        resolver.stopRefreshing();
+        keys.close();
+    }
+
+    @Benchmark
+    public String noScopes() {
+        return controller.noScopes(NAME, token);
+    }
+
+    @Benchmark
+    public String scopes() {
+        return controller.scopes(NAME, token);
+    }
+
+    @Benchmark
+    public String matchClaims() {
+        return controller.matchClaims(NAME, AGE, token);
+    }
+
+    @Benchmark
+    public Integer bindClaim() {
+        return controller.bindClaim(NAME, null, token);
+    }
+}
@@ -0,0 +1,40 @@
+package space.crickets.authorize.benchmarks;
+
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.BindClaim;
+import space.crickets.authorize.Jwt;
+import space.crickets.authorize.MatchClaim;
+
+/**
+ * Same shapes as the test HelloController, minus the web annotations. The method bodies do as little as
+ * possible so that what's measured is the @Authorize advice.
+ */
+public class BenchmarkController {
+    @Authorize
+    public String noScopes(String name, @Jwt String authorization) {
+        return name;
+    }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    public String scopes(String name, @Jwt String authorization) {
+        return name;
+    }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    public String matchClaims(
+            @MatchClaim("full-name") String name,
+            @MatchClaim("age") Integer age,
+            @Jwt String authorization
+    ) {
+        return name;
+    }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    public Integer bindClaim(
+            @MatchClaim("full-name") String name,
+            @BindClaim("age") Integer age,
+            @Jwt String authorization
+    ) {
+        return age;
+    }
+}
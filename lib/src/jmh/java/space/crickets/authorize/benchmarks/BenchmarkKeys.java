@@ -0,0 +1,152 @@
+package space.crickets.authorize.benchmarks;
+
+import com.google.gson.Gson;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.JsonWebKey;
+import space.crickets.authorize.signing.JsonWebKeys;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Locally generated signing keys (RSA and EC), a fake JWKS endpoint that serves the public halves, and real signed JWTs.
+ * Generating a real JWT by hand is a pain (see AuthorizeTest), but the benchmarks have to measure the real thing.
+ */
+class BenchmarkKeys implements AutoCloseable {
+    static final String RSA_KEY_ID = "benchmark-rsa";
+    static final String EC_KEY_ID = "benchmark-ec";
+
+    private static final Gson gson = new Gson();
+
+    final KeyPair rsaKeyPair;
+    final KeyPair ecKeyPair;
+    final JsonWebKey rsaJsonWebKey;
+    final JsonWebKey ecJsonWebKey;
+    private final MockWebServer jwksServer = new MockWebServer();
+
+    BenchmarkKeys() throws IOException {
+        try {
+            KeyPairGenerator rsa = KeyPairGenerator.getInstance("RSA");
+            rsa.initialize(2048);
+            rsaKeyPair = rsa.generateKeyPair();
+
+            KeyPairGenerator ec = KeyPairGenerator.getInstance("EC");
+            ec.initialize(new ECGenParameterSpec("secp256r1"));
+            ecKeyPair = ec.generateKeyPair();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to generate benchmark keys", e);
+        }
+
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) rsaKeyPair.getPublic();
+        rsaJsonWebKey = new JsonWebKey(
+                "RSA",
+                "sig",
+                null,
+                "RS256",
+                RSA_KEY_ID,
+                base64Url(rsaPublicKey.getPublicExponent()),
+                base64Url(rsaPublicKey.getModulus()),
+                null,
+                null,
+                null
+        );
+
+        ECPublicKey ecPublicKey = (ECPublicKey) ecKeyPair.getPublic();
+        ecJsonWebKey = JsonWebKey.ec(
+                EC_KEY_ID,
+                "ES256",
+                "P-256",
+                base64Url(ecPublicKey.getW().getAffineX(), 32),
+                base64Url(ecPublicKey.getW().getAffineY(), 32)
+        );
+
+        String jwks = gson.toJson(new JsonWebKeys(rsaJsonWebKey, ecJsonWebKey));
+        jwksServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody(jwks);
+            }
+        });
+        jwksServer.start();
+    }
+
+    String jwksUrl() {
+        return jwksServer.url("/v1/keys").toString();
+    }
+
+    AuthorizeSigningKeyResolver resolver() {
+        AuthorizeSigningKeyResolver resolver = new AuthorizeSigningKeyResolver(jwksUrl());
+        resolver.loadKeys();
+        return resolver;
+    }
+
+    String rs256Token(Map<String, Object> claims) {
+        return token(claims, RSA_KEY_ID, rsaKeyPair, SignatureAlgorithm.RS256);
+    }
+
+    String es256Token(Map<String, Object> claims) {
+        return token(claims, EC_KEY_ID, ecKeyPair, SignatureAlgorithm.ES256);
+    }
+
+    static Map<String, Object> claims(String fullName, int age, String... scopes) {
+        return Map.of(
+                "scp", List.of(scopes),
+                "full-name", fullName,
+                "age", age
+        );
+    }
+
+    @Override
+    public void close() throws IOException {
+        jwksServer.shutdown();
+    }
+
+    private static String token(Map<String, Object> claims, String keyId, KeyPair keyPair, SignatureAlgorithm algorithm) {
+        return Jwts.builder()
+                .setHeaderParam("kid", keyId)
+                .addClaims(claims)
+                .setExpiration(Date.from(Instant.now().plus(Duration.ofHours(12)))) // outlives any benchmark run
+                .signWith(keyPair.getPrivate(), algorithm)
+                .compact();
+    }
+
+    /**
+     * JWKs hold unsigned big-endian integers, base64url encoded without padding.
+     */
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length); // drop the sign byte
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * EC coordinates are left-padded to the full size of a coordinate instead.
+     */
+    private static String base64Url(BigInteger coordinate, int length) {
+        byte[] bytes = coordinate.toByteArray();
+        byte[] padded = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, padded, length - copy, copy);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(padded);
+    }
+}
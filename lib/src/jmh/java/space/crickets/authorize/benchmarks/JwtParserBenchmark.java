@@ -0,0 +1,53 @@
+package space.crickets.authorize.benchmarks;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+
+/**
+ * The cost of JwtParser.parse on its own: base64 decoding, JSON parsing and signature verification.
+ */
+@State(Scope.Benchmark)
+public class JwtParserBenchmark {
+    private BenchmarkKeys keys;
+    private AuthorizeSigningKeyResolver resolver;
+
+    private JwtParser jwtParser;
+    private String rs256Token;
+    private String es256Token;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        keys = new BenchmarkKeys();
+        resolver = keys.resolver();
+
+        // Same as AppConfig.jwtParser()
+        jwtParser = Jwts.parserBuilder()
+                .setSigningKeyResolver(resolver)
+                .build();
+        rs256Token = keys.rs256Token(BenchmarkKeys.claims("Roger", 14, "greeting.read"));
+        es256Token = keys.es256Token(BenchmarkKeys.claims("Roger", 14, "greeting.read"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        resolver.stopRefreshing();
+        keys.close();
+    }
+
+    @Benchmark
+    public Object rs256() {
+        return jwtParser.parse(rs256Token);
+    }
+
+    @Benchmark
+    public Object es256() {
+        return jwtParser.parse(es256Token);
+    }
+}
@@ -0,0 +1,45 @@
+package space.crickets.authorize.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import space.crickets.authorize.signing.JsonWebKey;
+import space.crickets.authorize.signing.PublicKeyBuilder;
+
+import java.security.PublicKey;
+
+/**
+ * Turning a JWK into a PublicKey. Happens for every key on every fetch of the JWKS endpoint.
+ */
+@State(Scope.Benchmark)
+public class PublicKeyBuilderBenchmark {
+    private final PublicKeyBuilder publicKeyBuilder = new PublicKeyBuilder();
+    private BenchmarkKeys keys;
+    private JsonWebKey rsaJsonWebKey;
+    private JsonWebKey ecJsonWebKey;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        keys = new BenchmarkKeys();
+        rsaJsonWebKey = keys.rsaJsonWebKey;
+        ecJsonWebKey = keys.ecJsonWebKey;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        keys.close();
+    }
+
+    @Benchmark
+    public PublicKey rsa() {
+        return publicKeyBuilder.buildPublicKey(rsaJsonWebKey);
+    }
+
+    @Benchmark
+    public PublicKey ec() {
+        return publicKeyBuilder.buildPublicKey(ecJsonWebKey);
+    }
+}
@@ -0,0 +1,63 @@
+package space.crickets.authorize.benchmarks;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwsHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+
+import java.security.Key;
+import java.util.Map;
+
+/**
+ * AuthorizeSigningKeyResolver.resolveSigningKey with many threads at once, which is how it gets called
+ * in production.
+ */
+@State(Scope.Benchmark)
+@Threads(8)
+public class SigningKeyResolverBenchmark {
+    private static final Claims CLAIMS = new DefaultClaims();
+
+    private BenchmarkKeys keys;
+    private AuthorizeSigningKeyResolver resolver;
+    private DefaultJwsHeader knownKeyHeader;
+    private DefaultJwsHeader unknownKeyHeader;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        keys = new BenchmarkKeys();
+        resolver = keys.resolver();
+        knownKeyHeader = new DefaultJwsHeader(Map.of("kid", BenchmarkKeys.RSA_KEY_ID));
+        unknownKeyHeader = new DefaultJwsHeader(Map.of("kid", "made-up"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        resolver.stopRefreshing();
+        keys.close();
+    }
+
+    @Benchmark
+    public Key knownKey() {
+        return resolver.resolveSigningKey(knownKeyHeader, CLAIMS);
+    }
+
+    /**
+     * Someone sending in made-up key IDs. This path should be nearly as cheap as the happy one.
+     */
+    @Benchmark
+    public Object unknownKey() {
+        try {
+            return resolver.resolveSigningKey(unknownKeyHeader, CLAIMS);
+        } catch (ForbiddenException e) {
+            return e;
+        }
+    }
+}
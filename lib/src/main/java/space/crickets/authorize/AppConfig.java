@@ -3,15 +3,35 @@ package space.crickets.authorize;
 import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
 import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
 import space.crickets.authorize.aop.AuthorizeAdvice;
+import space.crickets.authorize.aop.AuthorizeMethodScanner;
+import space.crickets.authorize.aop.TokenVerifier;
+import space.crickets.authorize.aop.VerifiedTokenCache;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+import space.crickets.authorize.metrics.MicrometerAuthorizeMetrics;
 import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.FastJwtParser;
+import space.crickets.authorize.signing.JwksSettings;
+
+import javax.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 @Configuration
 @EnableAspectJAutoProxy // Needed to get @Authorize and our other annotations to work
@@ -21,23 +41,224 @@ import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
 })
 public class AppConfig implements ApplicationContextAware {
     private ApplicationContext applicationContext;
+    private ForkJoinPool tokenVerifierPool;
 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException {
         this.applicationContext = applicationContext;
     }
 
+    /**
+     * Every property this library reads starts with "authorize.". The one exception is "jwks-url", which is still
+     * accepted in place of "authorize.jwks.url", since it's the name from before there were any other properties.
+     */
     @Bean(name = "jwksUrl")
     public String jwksUrl() {
-        String jwksUrl = applicationContext.getEnvironment().getProperty("jwks-url");
-        Assert.notNull(jwksUrl, "Environment property 'jwks-url' was not provided.");
+        Environment environment = applicationContext.getEnvironment();
+        String jwksUrl = environment.getProperty("authorize.jwks.url", environment.getProperty("jwks-url"));
+        Assert.notNull(jwksUrl, "Environment property 'authorize.jwks.url' was not provided.");
         return jwksUrl;
     }
 
+    @Bean
+    public JwksSettings jwksSettings(@Qualifier("jwksUrl") String jwksUrl, RejectionMode rejectionMode) {
+        Environment environment = applicationContext.getEnvironment();
+        long refreshIntervalSeconds = environment.getProperty(
+                "authorize.jwks.refresh-interval-seconds",
+                Long.class,
+                JwksSettings.DEFAULT_REFRESH_INTERVAL.toSeconds()
+        );
+        long fetchTimeoutMillis = environment.getProperty(
+                "authorize.jwks.fetch-timeout-millis",
+                Long.class,
+                JwksSettings.DEFAULT_FETCH_TIMEOUT.toMillis()
+        );
+        long fetchWaitTimeoutMillis = environment.getProperty(
+                "authorize.jwks.fetch-wait-timeout-millis",
+                Long.class,
+                JwksSettings.DEFAULT_FETCH_WAIT_TIMEOUT.toMillis()
+        );
+        long rejectedKeyIdTtlSeconds = environment.getProperty(
+                "authorize.jwks.rejected-key-id-ttl-seconds",
+                Long.class,
+                JwksSettings.DEFAULT_REJECTED_KEY_ID_TTL.toSeconds()
+        );
+        long rejectedKeyIdCacheSize = environment.getProperty(
+                "authorize.jwks.rejected-key-id-cache-size",
+                Long.class,
+                JwksSettings.DEFAULT_REJECTED_KEY_ID_CACHE_SIZE
+        );
+        long retiredKeyGraceSeconds = environment.getProperty(
+                "authorize.jwks.retired-key-grace-seconds",
+                Long.class,
+                0L
+        );
+        String snapshotFile = environment.getProperty("authorize.jwks.snapshot-file");
+        String issuerJwksUrls = environment.getProperty("authorize.jwks.issuer-urls", "");
+        String snapshotCoordination = environment.getProperty("authorize.jwks.snapshot-coordination", "none");
+        Assert.isTrue(
+                snapshotCoordination.equals("none") || snapshotCoordination.equals("file-lock"),
+                "Environment property 'authorize.jwks.snapshot-coordination' should be 'none' or 'file-lock'."
+        );
+        return new JwksSettings(
+                jwksUrl,
+                Duration.ofSeconds(refreshIntervalSeconds),
+                Duration.ofMillis(fetchTimeoutMillis),
+                Duration.ofMillis(fetchWaitTimeoutMillis),
+                Duration.ofSeconds(rejectedKeyIdTtlSeconds),
+                rejectedKeyIdCacheSize,
+                Duration.ofSeconds(retiredKeyGraceSeconds),
+                snapshotFile != null ? Path.of(snapshotFile) : null,
+                snapshotCoordination.equals("file-lock"),
+                parseIssuerJwksUrls(issuerJwksUrls),
+                rejectionMode
+        );
+    }
+
+    /**
+     * E.g. "https://a.example.com=https://a.example.com/keys,https://b.example.com=https://b.example.com/v1/keys".
+     * Split on the first "=", since JWKS urls can have query strings but issuers rarely do.
+     */
+    static Map<String, String> parseIssuerJwksUrls(String issuerJwksUrls) {
+        Map<String, String> parsed = new LinkedHashMap<>();
+
+        for (String entry : issuerJwksUrls.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+
+            int equals = entry.indexOf('=');
+            Assert.isTrue(
+                    equals > 0,
+                    "Environment property 'authorize.jwks.issuer-urls' should look like iss=url,iss=url,..."
+            );
+            parsed.put(entry.substring(0, equals).trim(), entry.substring(equals + 1).trim());
+        }
+
+        return Map.copyOf(parsed);
+    }
+
     @Bean
     public JwtParser jwtParser(AuthorizeSigningKeyResolver authorizeSigningKeyResolver) {
         return Jwts.parserBuilder()
                 .setSigningKeyResolver(authorizeSigningKeyResolver)
                 .build();
     }
+
+    /**
+     * Off by default. Set "authorize.fast-path-parser" to true to verify JWTs with FastJwtParser instead of jjwt.
+     */
+    @Bean
+    public FastJwtParser fastJwtParser(ObjectProvider<AuthorizeSigningKeyResolver> authorizeSigningKeyResolver) {
+        Environment environment = applicationContext.getEnvironment();
+        boolean enabled = environment.getProperty("authorize.fast-path-parser", Boolean.class, false);
+        AuthorizeSigningKeyResolver resolver = authorizeSigningKeyResolver.getIfAvailable();
+        return enabled && resolver != null ? new FastJwtParser(resolver) : FastJwtParser.disabled();
+    }
+
+    /**
+     * Micrometer is optional. If it's on the classpath and the application has a MeterRegistry bean, we record
+     * to it. Otherwise metrics go nowhere.
+     */
+    @Bean
+    public AuthorizeMetrics authorizeMetrics() {
+        if (ClassUtils.isPresent("io.micrometer.core.instrument.MeterRegistry", getClass().getClassLoader())) {
+            AuthorizeMetrics metrics = MicrometerAuthorizeMetrics.fromContext(applicationContext);
+
+            if (metrics != null) {
+                return metrics;
+            }
+        }
+
+        return AuthorizeMetrics.NOOP;
+    }
+
+    /**
+     * Off by default. Set "authorize.verified-token-cache.max-size" to a positive number to turn it on.
+     */
+    @Bean
+    public VerifiedTokenCache verifiedTokenCache() {
+        Environment environment = applicationContext.getEnvironment();
+        long maxSize = environment.getProperty("authorize.verified-token-cache.max-size", Long.class, 0L);
+        long maxAgeSeconds = environment.getProperty(
+                "authorize.verified-token-cache.max-age-seconds",
+                Long.class,
+                300L
+        );
+        return new VerifiedTokenCache(maxSize, Duration.ofSeconds(maxAgeSeconds));
+    }
+
+    /**
+     * Checks every @Authorize method at startup. Set "authorize.warm-up.rounds" to also run signature checking that
+     * many times on a throwaway JWT before taking requests (default 0 = don't).
+     */
+    @Bean
+    public AuthorizeMethodScanner authorizeMethodScanner(AuthorizeAdvice authorizeAdvice) {
+        Environment environment = applicationContext.getEnvironment();
+        int warmUpRounds = environment.getProperty("authorize.warm-up.rounds", Integer.class, 0);
+        return new AuthorizeMethodScanner(applicationContext, authorizeAdvice, warmUpRounds);
+    }
+
+    /**
+     * "detailed" (the default) or "fast". See RejectionMode.
+     */
+    @Bean
+    public RejectionMode rejectionMode() {
+        String rejectionMode = applicationContext.getEnvironment().getProperty("authorize.rejection-mode", "detailed");
+        Assert.isTrue(
+                rejectionMode.equals("detailed") || rejectionMode.equals("fast"),
+                "Environment property 'authorize.rejection-mode' should be 'detailed' or 'fast'."
+        );
+        return rejectionMode.equals("fast") ? RejectionMode.FAST : RejectionMode.DETAILED;
+    }
+
+    @Bean
+    public TokenVerifier tokenVerifier(
+            JwtParser jwtParser,
+            FastJwtParser fastJwtParser,
+            VerifiedTokenCache verifiedTokenCache,
+            AuthorizeMetrics authorizeMetrics,
+            ObjectProvider<AuthorizeSigningKeyResolver> authorizeSigningKeyResolver,
+            RejectionMode rejectionMode
+    ) {
+        return new TokenVerifier(
+                jwtParser,
+                fastJwtParser,
+                verifiedTokenCache,
+                authorizeMetrics,
+                authorizeSigningKeyResolver.getIfAvailable(),
+                tokenVerifierExecutor(),
+                rejectionMode
+        );
+    }
+
+    /**
+     * For TokenVerifier.verifyAll(). A pool of its own rather than the common pool: checking signatures is CPU-bound,
+     * but a token whose key can't be had straight away still has to wait, and that shouldn't hold up parallel streams
+     * and everything else that shares the common pool. "authorize.token-verifier.parallelism" threads, at most
+     * (default: one per processor).
+     * <p>
+     * Not a bean, so that it doesn't turn up when the application asks for an ExecutorService by type.
+     */
+    private Executor tokenVerifierExecutor() {
+        int parallelism = applicationContext.getEnvironment().getProperty(
+                "authorize.token-verifier.parallelism",
+                Integer.class,
+                Runtime.getRuntime().availableProcessors()
+        );
+        Assert.isTrue(
+                parallelism > 0,
+                "Environment property 'authorize.token-verifier.parallelism' should be positive."
+        );
+
+        tokenVerifierPool = new ForkJoinPool(parallelism); // Threads are only started once there's work for them.
+        return tokenVerifierPool;
+    }
+
+    @PreDestroy
+    public void shutDownTokenVerifierPool() {
+        if (tokenVerifierPool != null) {
+            tokenVerifierPool.shutdown();
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package space.crickets.authorize;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import space.crickets.authorize.aop.AuthorizationDescriptor;
+import space.crickets.authorize.aop.AuthorizeAdvice;
+import space.crickets.authorize.signing.JsonWebKeys;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a GraalVM native image needs to be told up front, because the library (or jjwt, or Gson) gets at it
+ * reflectively. Listed in META-INF/spring/aot.factories, so Spring AOT picks it up without being asked.
+ * <p>
+ * The application's own @Authorize beans are covered by AuthorizeBeanRegistrationAotProcessor.
+ */
+public class AuthorizeRuntimeHints implements RuntimeHintsRegistrar {
+
+    // jjwt-api instantiates its implementation by name. See io.jsonwebtoken.Jwts.
+    static final List<String> JJWT_IMPL_TYPES = List.of(
+            "io.jsonwebtoken.impl.DefaultJwtParserBuilder",
+            "io.jsonwebtoken.impl.DefaultJwtParser",
+            "io.jsonwebtoken.impl.DefaultJwtBuilder",
+            "io.jsonwebtoken.impl.DefaultClaims",
+            "io.jsonwebtoken.impl.DefaultHeader",
+            "io.jsonwebtoken.impl.DefaultJwsHeader"
+    );
+
+    // jjwt-impl finds these through ServiceLoader, falling back to instantiating known implementations by name.
+    // See io.jsonwebtoken.impl.lang.Services and io.jsonwebtoken.impl.DefaultJwtParserBuilder.
+    static final Map<String, List<String>> JJWT_SERVICES = Map.of(
+            "io.jsonwebtoken.io.Deserializer", List.of("io.jsonwebtoken.jackson.io.JacksonDeserializer"),
+            "io.jsonwebtoken.io.Serializer", List.of("io.jsonwebtoken.jackson.io.JacksonSerializer"),
+            "io.jsonwebtoken.CompressionCodec", List.of(
+                    "io.jsonwebtoken.impl.compression.DeflateCompressionCodec",
+                    "io.jsonwebtoken.impl.compression.GzipCompressionCodec"
+            )
+    );
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        // Gson fills in the JWKS response's records through their canonical constructors.
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), JsonWebKeys.class);
+
+        // Read off methods and parameters by AuthorizationPlan, and by Spring AOP when matching the pointcut.
+        for (Class<?> annotation : List.of(Authorize.class, Jwt.class, MatchClaim.class, BindClaim.class)) {
+            hints.reflection().registerType(annotation, MemberCategory.INVOKE_DECLARED_METHODS);
+        }
+
+        // Spring AOP builds its advisors by looking over the aspect's methods.
+        hints.reflection().registerType(
+                AuthorizeAdvice.class,
+                MemberCategory.INVOKE_DECLARED_METHODS,
+                MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS
+        );
+
+        for (String type : JJWT_IMPL_TYPES) {
+            hints.reflection().registerType(TypeReference.of(type), MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+
+        JJWT_SERVICES.forEach((service, implementations) -> {
+            hints.resources().registerPattern("META-INF/services/" + service);
+            for (String implementation : implementations) {
+                hints.reflection().registerType(
+                        TypeReference.of(implementation),
+                        MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS
+                );
+            }
+        });
+
+        // Anything the annotation processor generated. The descriptors themselves are found by ServiceLoader,
+        // which native-image takes care of, as long as the services file makes it into the image.
+        hints.resources().registerPattern("META-INF/services/" + AuthorizationDescriptor.class.getName());
+    }
+}
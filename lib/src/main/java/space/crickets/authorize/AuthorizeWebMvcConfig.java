@@ -0,0 +1,48 @@
+package space.crickets.authorize;
+
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+import org.springframework.util.ClassUtils;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import space.crickets.authorize.aop.AuthorizeAdvice;
+import space.crickets.authorize.aop.AuthorizeInterceptor;
+
+/**
+ * Optional, for Spring MVC applications. Import this as well as AppConfig to have JWTs checked before the request
+ * body is read. See AuthorizeInterceptor.
+ * <p>
+ * Spring MVC is an optional dependency, so this stays out of the way of applications without it (e.g. WebFlux ones)
+ * that happen to component scan this package.
+ */
+@Configuration
+@Conditional(AuthorizeWebMvcConfig.OnSpringMvc.class)
+public class AuthorizeWebMvcConfig implements WebMvcConfigurer {
+    private final AuthorizeInterceptor authorizeInterceptor;
+
+    public AuthorizeWebMvcConfig(AuthorizeAdvice authorizeAdvice) {
+        this.authorizeInterceptor = new AuthorizeInterceptor(authorizeAdvice);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(authorizeInterceptor);
+    }
+
+    /**
+     * Spring reads @Conditional without loading the class it's on, so this is checked before WebMvcConfigurer is
+     * ever needed.
+     */
+    static class OnSpringMvc implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return ClassUtils.isPresent(
+                    "org.springframework.web.servlet.config.annotation.WebMvcConfigurer",
+                    context.getClassLoader()
+            );
+        }
+    }
+}
@@ -3,7 +3,19 @@ package space.crickets.authorize;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+/**
+ * The argument has to match the JWT's claim of this name, or the call is forbidden.
+ * <p>
+ * Numbers match by value, whatever type the JSON parser handed back (e.g. a long argument matches a claim that came
+ * out as an Integer), and a number matches the same number written out as a string. If the claim is an array, a
+ * single-valued argument only has to match one of its elements; a collection or array argument has to match all of it.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface MatchClaim {
     String value();
+
+    /**
+     * For String arguments only. E.g. for email addresses.
+     */
+    boolean ignoreCase() default false;
 }
@@ -0,0 +1,19 @@
+package space.crickets.authorize.aop;
+
+import java.util.List;
+
+/**
+ * Everything about one class's @Authorize methods that would otherwise be worked out by reflection. Generated at
+ * compile time by the authorize-processor annotation processor, which also lists each one in
+ * META-INF/services/space.crickets.authorize.aop.AuthorizationDescriptor. AuthorizeAdvice picks them up from there.
+ * <p>
+ * Not meant to be implemented by hand.
+ */
+public interface AuthorizationDescriptor {
+    /**
+     * The class that declares the methods.
+     */
+    Class<?> declaringClass();
+
+    List<MethodDescriptor> methods();
+}
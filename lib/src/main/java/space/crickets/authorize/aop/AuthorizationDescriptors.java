@@ -0,0 +1,54 @@
+package space.crickets.authorize.aop;
+
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Every generated AuthorizationDescriptor on the classpath, by method. Loaded once, the first time it's needed.
+ */
+final class AuthorizationDescriptors {
+    private static volatile Map<MethodKey, MethodDescriptor> descriptors;
+
+    private record MethodKey(Class<?> declaringClass, String name, List<Class<?>> parameterTypes) {
+    }
+
+    private AuthorizationDescriptors() {
+    }
+
+    /**
+     * Null if the method's class wasn't compiled with the annotation processor.
+     */
+    static MethodDescriptor find(Method method) {
+        return descriptors().get(
+                new MethodKey(method.getDeclaringClass(), method.getName(), List.of(method.getParameterTypes()))
+        );
+    }
+
+    private static Map<MethodKey, MethodDescriptor> descriptors() {
+        Map<MethodKey, MethodDescriptor> loaded = descriptors;
+
+        if (loaded == null) {
+            loaded = new HashMap<>();
+            ClassLoader classLoader = ClassUtils.getDefaultClassLoader();
+
+            for (AuthorizationDescriptor descriptor : ServiceLoader.load(AuthorizationDescriptor.class, classLoader)) {
+                for (MethodDescriptor method : descriptor.methods()) {
+                    loaded.put(
+                            new MethodKey(descriptor.declaringClass(), method.name(), List.of(method.parameterTypes())),
+                            method
+                    );
+                }
+            }
+
+            loaded = Map.copyOf(loaded);
+            descriptors = loaded; // If two threads race to load, they come up with the same answer.
+        }
+
+        return loaded;
+    }
+}
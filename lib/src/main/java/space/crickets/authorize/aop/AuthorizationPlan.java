@@ -0,0 +1,312 @@
+package space.crickets.authorize.aop;
+
+import org.springframework.util.ClassUtils;
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.BindClaim;
+import space.crickets.authorize.Jwt;
+import space.crickets.authorize.MatchClaim;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Everything AuthorizeAdvice needs to know about an @Authorize method, worked out once via reflection.
+ * <p>
+ * Walking Method.getParameters() and asking each parameter for its annotations is surprisingly expensive
+ * when done on every request, and none of it changes after the class is loaded. So we do it once per method
+ * and keep the results in plain arrays that the advice can loop over.
+ * <p>
+ * Instances are immutable and safe to share between threads.
+ */
+final class AuthorizationPlan {
+    private static final boolean REACTOR_PRESENT =
+            ClassUtils.isPresent("reactor.core.publisher.Mono", AuthorizationPlan.class.getClassLoader());
+
+    // What a claim can come out of the JSON as. A @BindClaim parameter has to be able to take at least one of them.
+    private static final List<Class<?>> CLAIM_TYPES = List.of(
+            String.class, Integer.class, Long.class, BigInteger.class, Double.class, Boolean.class, List.class, Map.class
+    );
+
+    /**
+     * Reactive methods get authorized when subscribed to. See ReactiveAuthorization.
+     */
+    enum ReturnKind {
+        PLAIN,
+        MONO,
+        FLUX
+    }
+
+    private final ReturnKind returnKind;
+    private final int jwtIndex;
+    private final Set<String> requiredScopes;
+    private final long[] requiredScopeBits; // See ScopeRegistry.
+    private final Set<String> claimNames; // Every claim the checks below look at. See FastJwtParser.
+
+    // Parallel arrays: matchClaimIndices[i] is the argument position that must match claim matchClaimNames[i],
+    // as judged by matchClaimMatchers[i].
+    private final int[] matchClaimIndices;
+    private final String[] matchClaimNames;
+    private final ClaimMatcher[] matchClaimMatchers;
+
+    // Parallel arrays: bindClaimIndices[i] is the argument position that receives claim bindClaimNames[i].
+    private final int[] bindClaimIndices;
+    private final String[] bindClaimNames;
+    private final Class<?>[] bindClaimTypes; // Boxed, so an int parameter is Integer.class.
+
+    private AuthorizationPlan(
+            Class<?>[] parameterTypes,
+            ReturnKind returnKind,
+            int jwtIndex,
+            Set<String> requiredScopes,
+            long[] requiredScopeBits,
+            List<Integer> matchClaimIndices,
+            List<String> matchClaimNames,
+            List<ClaimMatcher> matchClaimMatchers,
+            List<Integer> bindClaimIndices,
+            List<String> bindClaimNames
+    ) {
+        this.returnKind = returnKind;
+        this.jwtIndex = jwtIndex;
+        this.requiredScopes = requiredScopes;
+        this.requiredScopeBits = requiredScopeBits;
+        this.matchClaimIndices = matchClaimIndices.stream().mapToInt(Integer::intValue).toArray();
+        this.matchClaimNames = matchClaimNames.toArray(String[]::new);
+        this.matchClaimMatchers = matchClaimMatchers.toArray(ClaimMatcher[]::new);
+        this.bindClaimIndices = bindClaimIndices.stream().mapToInt(Integer::intValue).toArray();
+        this.bindClaimNames = bindClaimNames.toArray(String[]::new);
+        this.bindClaimTypes = new Class<?>[this.bindClaimIndices.length];
+        for (int i = 0; i < this.bindClaimIndices.length; i++) {
+            this.bindClaimTypes[i] = ClassUtils.resolvePrimitiveIfNecessary(parameterTypes[this.bindClaimIndices[i]]);
+        }
+
+        Set<String> claimNames = new HashSet<>(matchClaimNames);
+        claimNames.addAll(bindClaimNames);
+        if (!requiredScopes.isEmpty()) {
+            claimNames.add("scp");
+        }
+        this.claimNames = Set.copyOf(claimNames);
+    }
+
+    /**
+     * Reflects over the method's parameters, once. Unless the annotation processor already did the work, in which
+     * case we go by its AuthorizationDescriptor.
+     */
+    static AuthorizationPlan compile(Method method, Authorize authorize, ScopeRegistry scopeRegistry) {
+        MethodDescriptor descriptor = AuthorizationDescriptors.find(method);
+
+        if (descriptor != null) {
+            return compile(method, descriptor, scopeRegistry); // No need to reflect.
+        }
+
+        Parameter[] parameters = method.getParameters();
+
+        int jwtIndex = -1;
+        List<Integer> matchClaimIndices = new ArrayList<>();
+        List<String> matchClaimNames = new ArrayList<>();
+        List<ClaimMatcher> matchClaimMatchers = new ArrayList<>();
+        List<Integer> bindClaimIndices = new ArrayList<>();
+        List<String> bindClaimNames = new ArrayList<>();
+
+        for (int i = 0; i < parameters.length; i++) {
+            Parameter parameter = parameters[i];
+
+            if (jwtIndex < 0 && parameter.isAnnotationPresent(Jwt.class)) {
+                if (parameter.getType() != String.class) {
+                    throw new RuntimeException("@Jwt parameter has to be a String, not " + parameter.getType().getName());
+                }
+
+                jwtIndex = i; // First one wins, same as before we cached any of this.
+            }
+
+            MatchClaim matchClaim = parameter.getAnnotation(MatchClaim.class);
+            if (matchClaim != null) {
+                matchClaimIndices.add(i);
+                matchClaimNames.add(matchClaim.value());
+                matchClaimMatchers.add(ClaimMatcher.compile(parameter.getType(), matchClaim.ignoreCase(), parameter.toString()));
+            }
+
+            BindClaim bindClaim = parameter.getAnnotation(BindClaim.class);
+            if (bindClaim != null) {
+                // A primitive is fine if its wrapper is: the argument is only replaced when the claim is there.
+                Class<?> bindType = ClassUtils.resolvePrimitiveIfNecessary(parameter.getType());
+                if (CLAIM_TYPES.stream().noneMatch(bindType::isAssignableFrom)) {
+                    throw new RuntimeException(
+                            "@BindClaim(\"" + bindClaim.value() + "\") parameter can't take a claim value; "
+                                    + parameter.getType().getName() + " should be e.g. String, Integer, List or Object"
+                    );
+                }
+
+                bindClaimIndices.add(i);
+                bindClaimNames.add(bindClaim.value());
+            }
+        }
+
+        if (jwtIndex < 0) {
+            throw new RuntimeException("@Jwt annotation not found in Controller method definition");
+        }
+
+        return build(
+                method,
+                scopeRegistry,
+                jwtIndex,
+                authorize.scopes(),
+                matchClaimIndices,
+                matchClaimNames,
+                matchClaimMatchers,
+                bindClaimIndices,
+                bindClaimNames
+        );
+    }
+
+    /**
+     * Same, from what the annotation processor worked out at compile time (and already checked).
+     */
+    private static AuthorizationPlan compile(Method method, MethodDescriptor descriptor, ScopeRegistry scopeRegistry) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        List<ClaimMatcher> matchClaimMatchers = new ArrayList<>();
+
+        for (int i = 0; i < descriptor.matchClaimIndices().length; i++) {
+            int index = descriptor.matchClaimIndices()[i];
+            matchClaimMatchers.add(ClaimMatcher.compile(
+                    parameterTypes[index],
+                    descriptor.matchClaimIgnoreCase()[i],
+                    method.getName() + " parameter " + index
+            ));
+        }
+
+        return build(
+                method,
+                scopeRegistry,
+                descriptor.jwtIndex(),
+                descriptor.scopes(),
+                Arrays.stream(descriptor.matchClaimIndices()).boxed().toList(),
+                List.of(descriptor.matchClaimNames()),
+                matchClaimMatchers,
+                Arrays.stream(descriptor.bindClaimIndices()).boxed().toList(),
+                List.of(descriptor.bindClaimNames())
+        );
+    }
+
+    private static AuthorizationPlan build(
+            Method method,
+            ScopeRegistry scopeRegistry,
+            int jwtIndex,
+            String[] scopes,
+            List<Integer> matchClaimIndices,
+            List<String> matchClaimNames,
+            List<ClaimMatcher> matchClaimMatchers,
+            List<Integer> bindClaimIndices,
+            List<String> bindClaimNames
+    ) {
+        Set<String> requiredScopes = Set.copyOf(List.of(scopes));
+        requiredScopes.forEach(scopeRegistry::intern);
+
+        ReturnKind returnKind = REACTOR_PRESENT
+                ? ReactiveAuthorization.returnKindOf(method.getReturnType())
+                : ReturnKind.PLAIN;
+
+        return new AuthorizationPlan(
+                method.getParameterTypes(),
+                returnKind,
+                jwtIndex,
+                requiredScopes,
+                scopeRegistry.bitsOf(requiredScopes, scopeRegistry.size()),
+                matchClaimIndices,
+                matchClaimNames,
+                matchClaimMatchers,
+                bindClaimIndices,
+                bindClaimNames
+        );
+    }
+
+    ReturnKind returnKind() {
+        return returnKind;
+    }
+
+    int jwtIndex() {
+        return jwtIndex;
+    }
+
+    Set<String> requiredScopes() {
+        return requiredScopes;
+    }
+
+    /**
+     * The claims a JWT needs to have read out of it for this method. Any others can be skipped.
+     */
+    Set<String> claimNames() {
+        return claimNames;
+    }
+
+    boolean requiresScopes() {
+        return !requiredScopes.isEmpty();
+    }
+
+    /**
+     * True if the JWT's scope bitset has any of the required scopes.
+     */
+    boolean hasAnyRequiredScope(long[] scopeBits) {
+        return ScopeRegistry.intersects(requiredScopeBits, scopeBits);
+    }
+
+    int matchClaimCount() {
+        return matchClaimIndices.length;
+    }
+
+    int matchClaimIndex(int i) {
+        return matchClaimIndices[i];
+    }
+
+    String matchClaimName(int i) {
+        return matchClaimNames[i];
+    }
+
+    boolean matchesClaim(int i, Object arg, Object claimValue) {
+        return matchClaimMatchers[i].matches(arg, claimValue);
+    }
+
+    int bindClaimCount() {
+        return bindClaimIndices.length;
+    }
+
+    int bindClaimIndex(int i) {
+        return bindClaimIndices[i];
+    }
+
+    String bindClaimName(int i) {
+        return bindClaimNames[i];
+    }
+
+    /**
+     * The claim value as the @BindClaim parameter can take it. A number comes out of the JSON as the smallest of
+     * Integer, Long or BigInteger that holds it, so a long, double or BigInteger parameter needs it widened the way
+     * Java would widen it.
+     */
+    Object bindClaimValue(int i, Object claimValue) {
+        Class<?> type = bindClaimTypes[i];
+        if (!(claimValue instanceof Number number) || type.isInstance(claimValue)) {
+            return claimValue;
+        }
+
+        boolean integral = number instanceof Integer || number instanceof Long
+                || number instanceof Short || number instanceof Byte;
+
+        if (type == Long.class && integral) {
+            return number.longValue();
+        }
+        if (type == Double.class && (integral || number instanceof Float)) {
+            return number.doubleValue();
+        }
+        if (type == BigInteger.class && integral) {
+            return BigInteger.valueOf(number.longValue());
+        }
+        return claimValue;
+    }
+}
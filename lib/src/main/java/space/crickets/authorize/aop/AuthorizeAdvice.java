@@ -1,27 +1,25 @@
 package space.crickets.authorize.aop;
 
 import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.ExpiredJwtException;
 import io.jsonwebtoken.JwtParser;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.security.SignatureException;
-import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import space.crickets.authorize.Authorize;
-import space.crickets.authorize.BindClaim;
-import space.crickets.authorize.Jwt;
-import space.crickets.authorize.MatchClaim;
-import space.crickets.authorize.exceptions.ForbiddenException;
-
-import java.lang.reflect.Parameter;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Objects;
-import java.util.Set;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.exceptions.RejectionReason;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.FastJwtParser;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * How this works: <a href="https://docs.spring.io/spring-framework/reference/core/aop/ataspectj/advice.html">Spring AOP</a>
@@ -29,109 +27,188 @@ import java.util.Set;
 @Component
 @Aspect
 public class AuthorizeAdvice {
-    private final JwtParser jwtParser;
+    private final TokenVerifier tokenVerifier;
+    private final AuthorizeMetrics metrics;
+    private final RejectionMode rejectionMode;
+
+    // One plan per @Authorize method, built the first time that method is called.
+    private final Map<Method, AuthorizationPlan> plans = new ConcurrentHashMap<>();
+    private final ScopeRegistry scopeRegistry = new ScopeRegistry();
+
+    // True if an AuthorizeInterceptor may have verified the JWT already, earlier in the request.
+    private volatile boolean lookForPreVerifiedJwts;
+
+    public AuthorizeAdvice(JwtParser jwtParser, VerifiedTokenCache verifiedTokenCache, AuthorizeMetrics metrics) {
+        this(jwtParser, verifiedTokenCache, metrics, null);
+    }
 
-    public AuthorizeAdvice(JwtParser jwtParser) {
-        this.jwtParser = jwtParser;
+    public AuthorizeAdvice(
+            JwtParser jwtParser,
+            VerifiedTokenCache verifiedTokenCache,
+            AuthorizeMetrics metrics,
+            AuthorizeSigningKeyResolver keyResolver
+    ) {
+        this(jwtParser, FastJwtParser.disabled(), verifiedTokenCache, metrics, keyResolver);
+    }
+
+    public AuthorizeAdvice(
+            JwtParser jwtParser,
+            FastJwtParser fastJwtParser,
+            VerifiedTokenCache verifiedTokenCache,
+            AuthorizeMetrics metrics,
+            AuthorizeSigningKeyResolver keyResolver
+    ) {
+        this(
+                new TokenVerifier(jwtParser, fastJwtParser, verifiedTokenCache, metrics, keyResolver, ForkJoinPool.commonPool()),
+                metrics
+        );
+    }
+
+    @Autowired
+    public AuthorizeAdvice(TokenVerifier tokenVerifier, AuthorizeMetrics metrics) {
+        this.tokenVerifier = tokenVerifier;
+        this.metrics = metrics;
+        this.rejectionMode = tokenVerifier.rejectionMode();
     }
 
     @Around("@annotation(authorize)")
     public Object performAuthorizationChecks(ProceedingJoinPoint joinPoint, Authorize authorize) throws Throwable {
-        io.jsonwebtoken.Jwt<?, Claims> jwt = verifyJwt(joinPoint);
+        AuthorizationPlan plan = planFor(((MethodSignature) joinPoint.getSignature()).getMethod(), authorize);
+        Object[] args = joinPoint.getArgs(); // This is a copy, so we're free to bind claims into it.
+
+        if (plan.returnKind() != AuthorizationPlan.ReturnKind.PLAIN) {
+            return ReactiveAuthorization.authorize(this, plan, joinPoint, args);
+        }
 
-        Claims claims = jwt.getBody();
+        String token = (String) args[plan.jwtIndex()];
+        VerifiedJwtContext.Entry outerJwt = VerifiedJwtContext.enter(token, authorize(plan, args));
 
-        verifyScopes(authorize, claims);
+        try {
+            return joinPoint.proceed(args); // Any @Authorize beans this calls with the same token reuse the JWT.
+        } finally {
+            VerifiedJwtContext.exit(outerJwt);
+        }
+    }
 
-        verifyClaims(joinPoint, claims);
+    /**
+     * All the checks, in order. Throws ForbiddenException if any of them fail, otherwise binds claims into args
+     * and returns the verified JWT.
+     */
+    VerifiedJwt authorize(AuthorizationPlan plan, Object[] args) {
+        long startedAt = System.nanoTime();
 
-        Object[] updatedArgs = bindClaims(joinPoint, claims);
+        try {
+            String token = (String) args[plan.jwtIndex()];
+            VerifiedJwt jwt = VerifiedJwtContext.lookUp(token, plan.claimNames());
 
-        return joinPoint.proceed(updatedArgs);
-    }
+            if (jwt == null && lookForPreVerifiedJwts) {
+                jwt = PreVerifiedJwt.lookUp(token, plan.claimNames());
+            }
 
-    private io.jsonwebtoken.Jwt<?, Claims> verifyJwt(JoinPoint joinPoint) {
-        // Grab the JWT
-        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
-        Parameter[] parameters = methodSignature.getMethod().getParameters();
-        Object[] actualArgs = joinPoint.getArgs();
-
-        for (int i = 0; i < parameters.length; i++) {
-            Parameter parameter = parameters[i];
-            Object actualArg = actualArgs[i];
-
-            if (parameter.isAnnotationPresent(Jwt.class)) {
-                try {
-                    return jwtParser.parse((String) actualArg);
-                } catch (ExpiredJwtException | MalformedJwtException | SignatureException | IllegalArgumentException e) {
-                    throw new ForbiddenException("Unable to parse JWT", e);
-                }
+            if (jwt == null) {
+                jwt = tokenVerifier.verify(token, plan.claimNames());
             }
+
+            Claims claims = jwt.claims();
+
+            verifyScopes(plan, jwt);
+
+            verifyClaims(plan, args, claims);
+
+            bindClaims(plan, args, claims);
+
+            return jwt;
+        } finally {
+            metrics.verification(System.nanoTime() - startedAt);
         }
+    }
 
-        throw new RuntimeException("@Jwt annotation not found in Controller method definition");
+    /**
+     * Makes sure the JWT's signing key is cached before authorize() needs it, without blocking.
+     * Completes straight away if there's nothing to fetch.
+     */
+    CompletableFuture<?> prefetchSigningKey(AuthorizationPlan plan, Object[] args) {
+        return tokenVerifier.prefetchSigningKey((String) args[plan.jwtIndex()]);
     }
 
-    private void verifyScopes(Authorize authorize, Claims claims) {
-        if (authorize.scopes().length > 0) {
-            Set<String> requiredScopes = new HashSet<>(List.of(authorize.scopes()));
+    /**
+     * The first half of authorize(): the JWT is genuine and has the scopes. Claims are checked later, once there are
+     * arguments to check them against. See AuthorizeInterceptor.
+     */
+    VerifiedJwt preAuthorize(AuthorizationPlan plan, String token) {
+        long startedAt = System.nanoTime();
 
-            for (Object scopeObj : claims.get("scp", List.class)) {
-                if (requiredScopes.contains((String) scopeObj)) {
-                    return; // bingo!
-                }
-            }
+        try {
+            VerifiedJwt jwt = tokenVerifier.verify(token, plan.claimNames());
+
+            verifyScopes(plan, jwt);
 
-            throw new ForbiddenException("JWT does not have any of these scopes: " + requiredScopes);
+            return jwt;
+        } finally {
+            metrics.verification(System.nanoTime() - startedAt);
         }
     }
 
-    private void verifyClaims(JoinPoint joinPoint, Claims claims) {
-        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
-        Parameter[] parameters = methodSignature.getMethod().getParameters();
-        Object[] actualArgs = joinPoint.getArgs();
-
-        for (int i = 0; i < parameters.length; i++) {
-            Parameter parameter = parameters[i];
-            Object arg = actualArgs[i];
-
-            if (parameter.isAnnotationPresent(MatchClaim.class)) {
-                MatchClaim matchClaim = parameter.getAnnotation(MatchClaim.class);
-                String claimName = matchClaim.value();
-
-                if (claims.containsKey(claimName)) {
-                    Object claimValue = claims.get(claimName);
-
-                    if (!Objects.equals(arg, claimValue)) {
-                        throw new ForbiddenException(
-                                String.format("JWT Claim %s is %s, but argument is %s", claimName, claimValue, arg)
-                        );
-                    }
-                } else {
-                    throw new ForbiddenException("JWT is missing claim: " + claimName);
-                }
-            }
+    /**
+     * Called once there's an AuthorizeInterceptor. Until then, there's no point looking.
+     */
+    void lookForPreVerifiedJwts() {
+        lookForPreVerifiedJwts = true;
+    }
+
+    AuthorizationPlan planFor(Method method, Authorize authorize) {
+        AuthorizationPlan plan = plans.get(method);
+
+        if (plan != null) {
+            return plan;
         }
+
+        return plans.computeIfAbsent(method, m -> AuthorizationPlan.compile(m, authorize, scopeRegistry));
     }
 
-    private Object[] bindClaims(ProceedingJoinPoint joinPoint, Claims claims) {
-        MethodSignature methodSignature = (MethodSignature) joinPoint.getSignature();
-        Parameter[] parameters = methodSignature.getMethod().getParameters();
-        Object[] updatedArgs = joinPoint.getArgs();
+    private void verifyScopes(AuthorizationPlan plan, VerifiedJwt jwt) {
+        if (plan.requiresScopes()) {
+            if (plan.hasAnyRequiredScope(jwt.scopeBits(scopeRegistry))) {
+                return; // bingo!
+            }
+
+            metrics.rejection(RejectionReason.MISSING_SCOPE);
+            throw rejectionMode.reject(
+                    RejectionReason.MISSING_SCOPE,
+                    () -> "JWT does not have any of these scopes: " + plan.requiredScopes()
+            );
+        }
+    }
 
-        for (int i = 0; i < parameters.length; i++) {
-            Parameter parameter = parameters[i];
+    private void verifyClaims(AuthorizationPlan plan, Object[] args, Claims claims) {
+        for (int i = 0; i < plan.matchClaimCount(); i++) {
+            String claimName = plan.matchClaimName(i);
+            Object arg = args[plan.matchClaimIndex(i)];
 
-            if (parameter.isAnnotationPresent(BindClaim.class)) {
-                BindClaim bindClaim = parameter.getAnnotation(BindClaim.class);
-                String claimName = bindClaim.value();
+            if (claims.containsKey(claimName)) {
+                Object claimValue = claims.get(claimName);
 
-                if (claims.containsKey(claimName)) {
-                    updatedArgs[i] = claims.get(claimName);
+                if (!plan.matchesClaim(i, arg, claimValue)) {
+                    metrics.rejection(RejectionReason.CLAIM_MISMATCH);
+                    throw rejectionMode.reject(
+                            RejectionReason.CLAIM_MISMATCH,
+                            () -> String.format("JWT Claim %s is %s, but argument is %s", claimName, claimValue, arg)
+                    );
                 }
+            } else {
+                metrics.rejection(RejectionReason.MISSING_CLAIM);
+                throw rejectionMode.reject(RejectionReason.MISSING_CLAIM, () -> "JWT is missing claim: " + claimName);
             }
         }
+    }
+
+    private void bindClaims(AuthorizationPlan plan, Object[] args, Claims claims) {
+        for (int i = 0; i < plan.bindClaimCount(); i++) {
+            String claimName = plan.bindClaimName(i);
 
-        return updatedArgs;
+            if (claims.containsKey(claimName)) {
+                args[plan.bindClaimIndex(i)] = plan.bindClaimValue(i, claims.get(claimName));
+            }
+        }
     }
 }
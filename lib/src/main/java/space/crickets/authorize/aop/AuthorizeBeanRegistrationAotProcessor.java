@@ -0,0 +1,47 @@
+package space.crickets.authorize.aop;
+
+import org.springframework.aot.hint.ExecutableMode;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.ReflectionHints;
+import org.springframework.beans.factory.aot.BeanRegistrationAotContribution;
+import org.springframework.beans.factory.aot.BeanRegistrationAotProcessor;
+import org.springframework.beans.factory.support.RegisteredBean;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+import space.crickets.authorize.Authorize;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+/**
+ * At build time, for a native image: finds the application's beans with @Authorize methods and registers those
+ * methods for reflection, since AuthorizeMethodScanner looks them up and AuthorizationPlan reads their parameters'
+ * annotations. Listed in META-INF/spring/aot.factories. See AuthorizeRuntimeHints for the library's own classes.
+ */
+public class AuthorizeBeanRegistrationAotProcessor implements BeanRegistrationAotProcessor {
+
+    @Override
+    public BeanRegistrationAotContribution processAheadOfTime(RegisteredBean registeredBean) {
+        Class<?> beanClass = ClassUtils.getUserClass(registeredBean.getBeanClass());
+        Set<Method> methods = MethodIntrospector.selectMethods(
+                beanClass,
+                (ReflectionUtils.MethodFilter) method -> method.isAnnotationPresent(Authorize.class)
+        );
+
+        if (methods.isEmpty()) {
+            return null;
+        }
+
+        return (generationContext, beanRegistrationCode) -> {
+            ReflectionHints reflection = generationContext.getRuntimeHints().reflection();
+            reflection.registerType(beanClass, MemberCategory.INTROSPECT_DECLARED_METHODS);
+
+            for (Method method : methods) {
+                // Could be inherited, and MethodIntrospector looks at each class in the hierarchy.
+                reflection.registerType(method.getDeclaringClass(), MemberCategory.INTROSPECT_DECLARED_METHODS);
+                reflection.registerMethod(method, ExecutableMode.INTROSPECT);
+            }
+        };
+    }
+}
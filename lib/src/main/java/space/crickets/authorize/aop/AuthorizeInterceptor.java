@@ -0,0 +1,109 @@
+package space.crickets.authorize.aop;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import space.crickets.authorize.Authorize;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Checks the JWT of a Spring MVC request as soon as the handler is known, before the request body is read or any
+ * arguments are resolved. So a forged, expired or under-scoped JWT costs us next to nothing, however big the body.
+ * <p>
+ * Only the JWT itself and its scopes can be checked this early. @MatchClaim and @BindClaim still happen in
+ * AuthorizeAdvice, once there are arguments, but it picks up the JWT verified here rather than verifying it again.
+ * <p>
+ * Only works for @Authorize methods whose @Jwt parameter is a @RequestHeader. Other methods are left to
+ * AuthorizeAdvice alone. Register it by importing AuthorizeWebMvcConfig.
+ */
+public class AuthorizeInterceptor implements HandlerInterceptor {
+    private final AuthorizeAdvice advice;
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+
+    // One per handler method, worked out the first time it's called.
+    private final Map<Method, Target> targets = new ConcurrentHashMap<>();
+
+    public AuthorizeInterceptor(AuthorizeAdvice advice) {
+        this.advice = advice;
+        advice.lookForPreVerifiedJwts();
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true; // E.g. static resources.
+        }
+
+        Target target = targets.computeIfAbsent(handlerMethod.getMethod(), method -> targetOf(handlerMethod));
+
+        if (target == Target.NONE) {
+            return true;
+        }
+
+        String token = request.getHeader(target.headerName());
+
+        if (token == null) {
+            return true; // Spring will answer with a 400 for the missing header, same as without us.
+        }
+
+        // Throws ForbiddenException if the JWT or its scopes don't check out.
+        PreVerifiedJwt.store(request, token, advice.preAuthorize(target.plan(), token));
+        return true;
+    }
+
+    private Target targetOf(HandlerMethod handlerMethod) {
+        Method method = handlerMethod.getMethod();
+        Authorize authorize = method.getAnnotation(Authorize.class);
+
+        if (authorize == null) {
+            return Target.NONE;
+        }
+
+        AuthorizationPlan plan = advice.planFor(method, authorize);
+        MethodParameter jwtParameter = handlerMethod.getMethodParameters()[plan.jwtIndex()];
+        RequestHeader requestHeader = jwtParameter.getParameterAnnotation(RequestHeader.class);
+
+        if (requestHeader == null) {
+            return Target.NONE; // The JWT comes from somewhere else, so we can't get at it yet.
+        }
+
+        String headerName = headerName(requestHeader, jwtParameter);
+
+        if (headerName == null) {
+            return Target.NONE; // Spring won't be able to bind it either, so there's nothing to check early.
+        }
+
+        // The whole header value, same as the @Jwt parameter gets. TokenVerifier looks past a "Bearer " in front.
+        return new Target(plan, headerName);
+    }
+
+    /**
+     * Same as Spring works it out: @RequestHeader's value, else the parameter's name. Null if neither is known, e.g.
+     * when compiled without -parameters.
+     */
+    private String headerName(RequestHeader requestHeader, MethodParameter jwtParameter) {
+        if (StringUtils.hasText(requestHeader.value())) {
+            return requestHeader.value();
+        }
+
+        if (StringUtils.hasText(requestHeader.name())) {
+            return requestHeader.name();
+        }
+
+        jwtParameter.initParameterNameDiscovery(parameterNameDiscoverer);
+        return jwtParameter.getParameterName();
+    }
+
+    private record Target(AuthorizationPlan plan, String headerName) {
+        static final Target NONE = new Target(null, null);
+    }
+}
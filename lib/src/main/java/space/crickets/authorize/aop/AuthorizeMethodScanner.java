@@ -0,0 +1,72 @@
+package space.crickets.authorize.aop;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.util.ClassUtils;
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.signing.SigningWarmUp;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+
+/**
+ * Once every bean has been created, finds all the @Authorize methods and builds their AuthorizationPlans. So a
+ * misconfigured method (no @Jwt parameter, a @BindClaim that can't take a claim, ...) stops the application from
+ * starting, rather than failing every call to it later. It also saves the first call to each method the reflection.
+ * <p>
+ * Optionally, then warms up signature checking. See SigningWarmUp.
+ */
+public class AuthorizeMethodScanner implements SmartInitializingSingleton {
+    private static final Log log = LogFactory.getLog(AuthorizeMethodScanner.class);
+
+    private final ListableBeanFactory beanFactory;
+    private final AuthorizeAdvice advice;
+    private final int warmUpRounds; // Zero means no warm-up.
+
+    public AuthorizeMethodScanner(ListableBeanFactory beanFactory, AuthorizeAdvice advice, int warmUpRounds) {
+        this.beanFactory = beanFactory;
+        this.advice = advice;
+        this.warmUpRounds = warmUpRounds;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        int methodCount = 0;
+
+        for (String beanName : beanFactory.getBeanDefinitionNames()) {
+            Class<?> beanType = beanFactory.getType(beanName, false); // Don't go creating beans just to look.
+
+            if (beanType == null) {
+                continue;
+            }
+
+            Map<Method, Authorize> methods = MethodIntrospector.selectMethods(
+                    ClassUtils.getUserClass(beanType), // Not the proxy's.
+                    (MethodIntrospector.MetadataLookup<Authorize>) method -> method.getAnnotation(Authorize.class)
+            );
+
+            for (Map.Entry<Method, Authorize> method : methods.entrySet()) {
+                try {
+                    advice.planFor(method.getKey(), method.getValue());
+                } catch (RuntimeException e) {
+                    throw new BeanInitializationException(
+                            "Misconfigured @Authorize method " + method.getKey().toGenericString() + ": " + e.getMessage(), e
+                    );
+                }
+            }
+
+            methodCount += methods.size();
+        }
+
+        if (warmUpRounds > 0) {
+            long startedAt = System.nanoTime();
+            SigningWarmUp.run(warmUpRounds);
+            log.info("Checked " + methodCount + " @Authorize methods and warmed up signature checking in "
+                    + (System.nanoTime() - startedAt) / 1_000_000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package space.crickets.authorize.aop;
+
+import org.springframework.util.ClassUtils;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * How a @MatchClaim argument is compared to its claim. Picked once per parameter, by AuthorizationPlan, based on the
+ * parameter's type, so that each request only pays for the comparison itself.
+ * <p>
+ * None of these allocate, unless the claim and the argument are different kinds of thing altogether
+ * (e.g. a number written out as a string).
+ */
+@FunctionalInterface
+interface ClaimMatcher {
+    boolean matches(Object arg, Object claimValue);
+
+    /**
+     * `parameterName` is only for the error message.
+     */
+    static ClaimMatcher compile(Class<?> parameterType, boolean ignoreCase, String parameterName) {
+        Class<?> type = ClassUtils.resolvePrimitiveIfNecessary(parameterType);
+        boolean isString = CharSequence.class.isAssignableFrom(type);
+
+        if (ignoreCase && !isString) {
+            throw new RuntimeException(
+                    "@MatchClaim(ignoreCase = true) only works on String parameters, not " + parameterName
+            );
+        }
+
+        if (Collection.class.isAssignableFrom(type) || type.isArray()) {
+            return Objects::equals; // Has to be the whole array, then. No any-element matching.
+        }
+
+        ClaimMatcher matcher;
+        if (isString) {
+            matcher = ignoreCase ? ClaimMatcher::stringEqualsIgnoreCase : ClaimMatcher::stringEquals;
+        } else if (isWholeNumber(type)) {
+            matcher = ClaimMatcher::wholeNumberEquals;
+        } else if (Number.class.isAssignableFrom(type)) {
+            matcher = ClaimMatcher::numberEquals;
+        } else if (type == Boolean.class) {
+            matcher = ClaimMatcher::booleanEquals;
+        } else {
+            matcher = ClaimMatcher::looselyEquals; // E.g. Object. Go by what the argument turns out to be.
+        }
+
+        return anyElement(matcher);
+    }
+
+    /**
+     * Array claims (e.g. "groups") match if any element does. Not for an argument that's a collection itself (an
+     * Object parameter can turn out to be one): that still has to equal the whole claim.
+     */
+    private static ClaimMatcher anyElement(ClaimMatcher matcher) {
+        return (arg, claimValue) -> {
+            if (arg instanceof Collection<?> || arg instanceof Object[]) {
+                return Objects.equals(arg, claimValue);
+            }
+
+            if (claimValue instanceof List<?> list && list instanceof RandomAccess) {
+                for (int i = 0; i < list.size(); i++) { // No Iterator.
+                    if (matcher.matches(arg, list.get(i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            if (claimValue instanceof Collection<?> collection) {
+                for (Object element : collection) {
+                    if (matcher.matches(arg, element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            return matcher.matches(arg, claimValue);
+        };
+    }
+
+    private static boolean stringEquals(Object arg, Object claimValue) {
+        if (arg == null || claimValue == null) {
+            return arg == claimValue;
+        }
+
+        if (claimValue instanceof String claimString) {
+            return claimString.contentEquals((CharSequence) arg);
+        }
+
+        // E.g. a path variable "42" and a numeric claim.
+        return claimValue.toString().contentEquals((CharSequence) arg);
+    }
+
+    private static boolean stringEqualsIgnoreCase(Object arg, Object claimValue) {
+        if (arg == null || claimValue == null) {
+            return arg == claimValue;
+        }
+
+        return claimValue instanceof String claimString && claimString.equalsIgnoreCase(arg.toString());
+    }
+
+    private static boolean wholeNumberEquals(Object arg, Object claimValue) {
+        if (arg == null || claimValue == null) {
+            return arg == claimValue;
+        }
+
+        long argValue = ((Number) arg).longValue();
+
+        if (claimValue instanceof Long || claimValue instanceof Integer
+                || claimValue instanceof Short || claimValue instanceof Byte) {
+            return ((Number) claimValue).longValue() == argValue;
+        }
+
+        if (claimValue instanceof BigInteger bigInteger) {
+            return bigInteger.bitLength() < 64 && bigInteger.longValue() == argValue;
+        }
+
+        if (claimValue instanceof Double || claimValue instanceof Float) {
+            double claimDouble = ((Number) claimValue).doubleValue();
+            return claimDouble == (double) argValue && (long) claimDouble == argValue; // E.g. 42.0
+        }
+
+        if (claimValue instanceof BigDecimal bigDecimal) {
+            return bigDecimal.compareTo(BigDecimal.valueOf(argValue)) == 0;
+        }
+
+        if (claimValue instanceof String claimString) {
+            // Written out the same way, as with String arguments. Not "+42" or "042".
+            return Long.toString(argValue).equals(claimString);
+        }
+
+        return false;
+    }
+
+    /**
+     * Fractions, and whole numbers too big for a long.
+     */
+    private static boolean numberEquals(Object arg, Object claimValue) {
+        if (arg == null || claimValue == null) {
+            return arg == claimValue;
+        }
+
+        if (arg instanceof Float argFloat) {
+            // So that 0.1f matches the claim 0.1, which is a double.
+            return claimValue instanceof Number claimNumber && claimNumber.floatValue() == argFloat;
+        }
+
+        if (arg instanceof Double argDouble) {
+            if (claimValue instanceof String claimString) {
+                try {
+                    return Double.parseDouble(claimString) == argDouble;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+
+            return claimValue instanceof Number claimNumber && claimNumber.doubleValue() == argDouble;
+        }
+
+        // BigInteger, BigDecimal or something more exotic. Rare enough not to worry about allocating.
+        try {
+            return new BigDecimal(arg.toString()).compareTo(new BigDecimal(claimValue.toString())) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean booleanEquals(Object arg, Object claimValue) {
+        if (arg == null || claimValue == null) {
+            return arg == claimValue;
+        }
+
+        if (claimValue instanceof String claimString) {
+            return claimString.equalsIgnoreCase(arg.toString());
+        }
+
+        return arg.equals(claimValue);
+    }
+
+    private static boolean looselyEquals(Object arg, Object claimValue) {
+        if (arg instanceof CharSequence) {
+            return stringEquals(arg, claimValue);
+        }
+
+        if (arg instanceof Long || arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            return wholeNumberEquals(arg, claimValue);
+        }
+
+        if (arg instanceof Number) {
+            return numberEquals(arg, claimValue);
+        }
+
+        if (arg instanceof Boolean) {
+            return booleanEquals(arg, claimValue);
+        }
+
+        return Objects.equals(arg, claimValue);
+    }
+
+    private static boolean isWholeNumber(Class<?> type) {
+        return type == Long.class || type == Integer.class || type == Short.class || type == Byte.class;
+    }
+}
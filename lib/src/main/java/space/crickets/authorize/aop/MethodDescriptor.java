@@ -0,0 +1,20 @@
+package space.crickets.authorize.aop;
+
+/**
+ * One @Authorize method, as the annotation processor saw it. See AuthorizationDescriptor.
+ * <p>
+ * Parallel arrays, same as AuthorizationPlan: matchClaimIndices[i] is the argument position that must match claim
+ * matchClaimNames[i], case-insensitively if matchClaimIgnoreCase[i].
+ */
+public record MethodDescriptor(
+        String name,
+        Class<?>[] parameterTypes,
+        int jwtIndex,
+        String[] scopes,
+        int[] matchClaimIndices,
+        String[] matchClaimNames,
+        boolean[] matchClaimIgnoreCase,
+        int[] bindClaimIndices,
+        String[] bindClaimNames
+) {
+}
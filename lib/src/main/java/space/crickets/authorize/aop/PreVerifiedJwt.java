@@ -0,0 +1,41 @@
+package space.crickets.authorize.aop;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+import java.util.Set;
+
+/**
+ * A JWT that AuthorizeInterceptor already verified for this request, kept in a request attribute so that
+ * AuthorizeAdvice doesn't verify it all over again.
+ * <p>
+ * Spring MVC is an optional dependency. Nothing touches this class unless there's an AuthorizeInterceptor, and
+ * there can't be one without Spring MVC on the classpath.
+ */
+record PreVerifiedJwt(String token, VerifiedJwt jwt) {
+    static final String ATTRIBUTE = PreVerifiedJwt.class.getName();
+
+    static void store(HttpServletRequest request, String token, VerifiedJwt jwt) {
+        request.setAttribute(ATTRIBUTE, new PreVerifiedJwt(token, jwt));
+    }
+
+    /**
+     * Null unless this very token was verified earlier in the current request, and enough of it was read.
+     */
+    static VerifiedJwt lookUp(String token, Set<String> claimNames) {
+        RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+
+        if (requestAttributes == null) {
+            return null; // Not on a request thread.
+        }
+
+        if (requestAttributes.getAttribute(ATTRIBUTE, RequestAttributes.SCOPE_REQUEST) instanceof PreVerifiedJwt preVerified
+                && preVerified.token().equals(token)
+                && preVerified.jwt().hasRead(claimNames)) {
+            return preVerified.jwt();
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package space.crickets.authorize.aop;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Authorizes @Authorize methods that return a Mono or a Flux, e.g. WebFlux controllers.
+ * <p>
+ * Two things differ from the plain, synchronous case:
+ * 1) The checks happen when the caller subscribes, as part of the reactive chain, rather than when the method
+ *    is called. A failed check comes out as an error signal carrying the ForbiddenException.
+ * 2) If the JWT's signing key has to be fetched, we wait for it without blocking. Blocking would stall a
+ *    Netty event loop, and every other request on it. The checks themselves run on boundedElastic, in case
+ *    they end up waiting on keys after all.
+ * <p>
+ * Reactor is an optional dependency. Nothing touches this class unless a method returns a Mono or Flux, and
+ * that can't happen without Reactor on the classpath.
+ */
+final class ReactiveAuthorization {
+    private ReactiveAuthorization() {
+    }
+
+    static AuthorizationPlan.ReturnKind returnKindOf(Class<?> returnType) {
+        if (Mono.class.isAssignableFrom(returnType)) {
+            return AuthorizationPlan.ReturnKind.MONO;
+        }
+
+        if (Flux.class.isAssignableFrom(returnType)) {
+            return AuthorizationPlan.ReturnKind.FLUX;
+        }
+
+        return AuthorizationPlan.ReturnKind.PLAIN;
+    }
+
+    static Object authorize(AuthorizeAdvice advice, AuthorizationPlan plan, ProceedingJoinPoint joinPoint, Object[] args) {
+        // The prefetch usually means authorize() finds the key cached. Not always, though: there may have been nothing
+        // to prefetch (no "kid"), or a refresh may have swapped the keys since. Then authorize() would block waiting
+        // on a fetch, so it runs on boundedElastic, never on the event loop.
+        Mono<Object[]> authorizedArgs = Mono.fromFuture(() -> advice.prefetchSigningKey(plan, args))
+                .then(Mono.fromCallable(() -> {
+                    advice.authorize(plan, args);
+                    return args;
+                }).subscribeOn(Schedulers.boundedElastic()));
+
+        if (plan.returnKind() == AuthorizationPlan.ReturnKind.MONO) {
+            return authorizedArgs.flatMap(authorized -> Mono.from(proceed(joinPoint, authorized)));
+        }
+
+        return authorizedArgs.flatMapMany(authorized -> Flux.from(proceed(joinPoint, authorized)));
+    }
+
+    private static Publisher<?> proceed(ProceedingJoinPoint joinPoint, Object[] args) {
+        try {
+            return (Publisher<?>) joinPoint.proceed(args);
+        } catch (Throwable t) {
+            return Mono.error(t);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package space.crickets.authorize.aop;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives every scope named in an @Authorize annotation a small, permanent number, so that a set of scopes can be
+ * a bitset instead of a HashSet of Strings. Checking whether a JWT has one of a method's scopes then comes down
+ * to AND-ing a couple of longs together.
+ * <p>
+ * Scopes only ever get added, at plan-build time, so this stays small: one entry per distinct scope across all
+ * of the application's @Authorize methods.
+ */
+final class ScopeRegistry {
+    private final Map<String, Integer> indices = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the scope's number, giving it the next free one if it doesn't have one yet.
+     */
+    synchronized int intern(String scope) {
+        Integer index = indices.get(scope);
+
+        if (index == null) {
+            index = indices.size();
+            indices.put(scope, index);
+        }
+
+        return index;
+    }
+
+    /**
+     * Grows every time a scope is interned. Bitsets built from an older size may be missing newer scopes.
+     */
+    int size() {
+        return indices.size();
+    }
+
+    /**
+     * Bitset of the given scopes, sized for the first `size` interned scopes. Scopes that no @Authorize method
+     * asks for are left out; they can never make a difference.
+     */
+    long[] bitsOf(Collection<?> scopes, int size) {
+        long[] bits = new long[words(size)];
+
+        if (scopes != null) {
+            for (Object scope : scopes) {
+                Integer index = scope instanceof String ? indices.get(scope) : null;
+
+                if (index != null && index < size) {
+                    bits[index >>> 6] |= 1L << index;
+                }
+            }
+        }
+
+        return bits;
+    }
+
+    /**
+     * True if the two bitsets have at least one scope in common.
+     */
+    static boolean intersects(long[] required, long[] actual) {
+        int words = Math.min(required.length, actual.length);
+
+        for (int i = 0; i < words; i++) {
+            if ((required[i] & actual[i]) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static int words(int size) {
+        return (size + 63) >>> 6;
+    }
+}
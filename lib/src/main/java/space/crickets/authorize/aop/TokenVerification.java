@@ -0,0 +1,20 @@
+package space.crickets.authorize.aop;
+
+import space.crickets.authorize.exceptions.ForbiddenException;
+
+/**
+ * How one token in a TokenVerifier.verifyAll() batch fared. Exactly one of `jwt` and `failure` is non-null.
+ */
+public record TokenVerification(String token, VerifiedJwt jwt, ForbiddenException failure) {
+    static TokenVerification verified(String token, VerifiedJwt jwt) {
+        return new TokenVerification(token, jwt, null);
+    }
+
+    static TokenVerification rejected(String token, ForbiddenException failure) {
+        return new TokenVerification(token, null, failure);
+    }
+
+    public boolean isVerified() {
+        return jwt != null;
+    }
+}
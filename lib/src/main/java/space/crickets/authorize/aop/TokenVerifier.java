@@ -0,0 +1,252 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.security.SignatureException;
+import io.jsonwebtoken.security.WeakKeyException;
+import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.exceptions.RejectionReason;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.CompactJws;
+import space.crickets.authorize.signing.FastJwtParser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks that a JWT is genuine and current. Just that: scopes and claims are up to the caller.
+ * <p>
+ * AuthorizeAdvice uses this for every @Authorize method. It's also a bean in its own right, for code that has
+ * tokens to check outside of a method call, e.g. a message consumer working through a batch of messages.
+ */
+public class TokenVerifier {
+    private static final CompletableFuture<?> NOTHING_TO_FETCH = CompletableFuture.completedFuture(null);
+    private static final String BEARER = "Bearer ";
+
+    private final JwtParser jwtParser;
+    private final FastJwtParser fastJwtParser; // Used instead of jwtParser, if enabled.
+    private final VerifiedTokenCache verifiedTokenCache;
+    private final AuthorizeMetrics metrics;
+    private final AuthorizeSigningKeyResolver keyResolver; // Null in tests.
+    private final Executor executor; // verifyAll() checks signatures on this. Best not the common pool; see AppConfig.
+    private final RejectionMode rejectionMode;
+
+    public TokenVerifier(
+            JwtParser jwtParser,
+            FastJwtParser fastJwtParser,
+            VerifiedTokenCache verifiedTokenCache,
+            AuthorizeMetrics metrics,
+            AuthorizeSigningKeyResolver keyResolver,
+            Executor executor
+    ) {
+        this(jwtParser, fastJwtParser, verifiedTokenCache, metrics, keyResolver, executor, RejectionMode.DETAILED);
+    }
+
+    public TokenVerifier(
+            JwtParser jwtParser,
+            FastJwtParser fastJwtParser,
+            VerifiedTokenCache verifiedTokenCache,
+            AuthorizeMetrics metrics,
+            AuthorizeSigningKeyResolver keyResolver,
+            Executor executor,
+            RejectionMode rejectionMode
+    ) {
+        this.jwtParser = jwtParser;
+        this.fastJwtParser = fastJwtParser;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.metrics = metrics;
+        this.keyResolver = keyResolver;
+        this.executor = executor;
+        this.rejectionMode = rejectionMode;
+
+        if (keyResolver != null && verifiedTokenCache.isEnabled()) {
+            // Otherwise JWTs signed with a key we no longer trust would pass until they drop out of the cache.
+            keyResolver.onKeysRemoved(verifiedTokenCache::forgetKeys);
+        }
+    }
+
+    /**
+     * Throws ForbiddenException if the token doesn't check out. A "Bearer " in front of it is fine.
+     */
+    public VerifiedJwt verify(String token) {
+        return verify(token, null);
+    }
+
+    /**
+     * Checks a batch of tokens. Results come back in the same order as `tokens`.
+     * <p>
+     * Each distinct token is only checked once, however many times it appears. Each distinct signing key is
+     * looked up (and if need be, fetched) once, up front. Then the signatures are checked in parallel.
+     */
+    public List<TokenVerification> verifyAll(List<String> tokens) {
+        Map<KeyRef, CompletableFuture<?>> keyLookups = new HashMap<>();
+        Map<String, CompletableFuture<TokenVerification>> verifications = new HashMap<>();
+
+        for (String token : tokens) {
+            if (verifications.containsKey(token)) {
+                continue; // Same token, same answer.
+            }
+
+            KeyRef keyRef = keyToResolve(token);
+            CompletableFuture<?> keyLookup = keyRef != null
+                    ? keyLookups.computeIfAbsent(keyRef, this::resolveSigningKeyAsync)
+                    : NOTHING_TO_FETCH;
+
+            verifications.put(token, keyLookup.handle((ignored, e) -> e).thenApplyAsync(
+                    // If the lookup failed, so would verifying, only after blocking on the JWKS endpoint again.
+                    // Whatever went wrong goes for every token signed with that key, so don't even try.
+                    e -> e == null ? verification(token) : TokenVerification.rejected(token, keyLookupFailure(e)),
+                    executor
+            ));
+        }
+
+        List<TokenVerification> results = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            results.add(verifications.get(token).join());
+        }
+
+        return results;
+    }
+
+    /**
+     * Makes sure the token's signing key is cached before verify() needs it, without blocking.
+     * Completes straight away if there's nothing to fetch.
+     */
+    CompletableFuture<?> prefetchSigningKey(String token) {
+        KeyRef keyRef = keyToResolve(token);
+
+        if (keyRef == null) {
+            return NOTHING_TO_FETCH;
+        }
+
+        // If this fails, so would verify(), only after blocking to find out. So fail here instead.
+        return resolveSigningKeyAsync(keyRef);
+    }
+
+    /**
+     * Only reads `claimNames` out of the token if it can get away with it (see FastJwtParser). Null means all claims.
+     */
+    VerifiedJwt verify(String token, Set<String> claimNames) {
+        token = withoutScheme(token);
+        VerifiedJwt jwt = verifiedTokenCache.get(token);
+
+        if (jwt != null && jwt.hasRead(claimNames)) {
+            return jwt; // Seen and verified this exact token before, and it hasn't expired.
+        }
+
+        if (jwt != null) {
+            // Verified before, for a method that needed other claims. Read them all this time, so that the entry
+            // we replace it with does for both methods, rather than the two taking turns evicting each other.
+            claimNames = null;
+        }
+
+        try {
+            jwt = fastJwtParser.isEnabled()
+                    ? new VerifiedJwt(fastJwtParser.parse(token, claimNames), claimNames)
+                    : new VerifiedJwt(jwtParser.parse(token));
+        } catch (JwtException | IllegalArgumentException e) {
+            RejectionReason reason = reasonFor(e);
+            metrics.rejection(reason);
+            throw rejectionMode.reject(reason, () -> "Unable to parse JWT", e);
+        }
+
+        verifiedTokenCache.put(token, jwt);
+        return jwt;
+    }
+
+    /**
+     * How AuthorizeAdvice should turn callers away, too.
+     */
+    RejectionMode rejectionMode() {
+        return rejectionMode;
+    }
+
+    private TokenVerification verification(String token) {
+        try {
+            return TokenVerification.verified(token, verify(token));
+        } catch (ForbiddenException e) {
+            return TokenVerification.rejected(token, e);
+        }
+    }
+
+    /**
+     * Key lookups fail with a ForbiddenException (already counted in the metrics), wrapped in a CompletionException.
+     * Anything else means the keys couldn't be had at all.
+     */
+    private ForbiddenException keyLookupFailure(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+        if (cause instanceof ForbiddenException forbidden) {
+            return forbidden;
+        }
+
+        metrics.rejection(RejectionReason.KEYS_UNAVAILABLE);
+        return rejectionMode.reject(RejectionReason.KEYS_UNAVAILABLE, () -> "Unable to fetch signing keys", cause);
+    }
+
+    /**
+     * The key to look up ahead of verifying, or null if there's no need.
+     */
+    private KeyRef keyToResolve(String token) {
+        token = withoutScheme(token);
+
+        if (keyResolver == null || verifiedTokenCache.get(token) != null) {
+            return null;
+        }
+
+        String keyId = CompactJws.keyId(token);
+        return keyId != null ? new KeyRef(CompactJws.issuer(token), keyId) : null;
+    }
+
+    private CompletableFuture<?> resolveSigningKeyAsync(KeyRef keyRef) {
+        return keyResolver.resolveSigningKeyAsync(keyRef.issuer(), keyRef.keyId());
+    }
+
+    /**
+     * The JWT itself, whether it's passed in on its own or as a whole "Authorization: Bearer ..." header value.
+     */
+    static String withoutScheme(String token) {
+        if (token != null && token.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return token.substring(BEARER.length()).trim();
+        }
+
+        return token;
+    }
+
+    /**
+     * Key IDs are only unique per issuer.
+     */
+    private record KeyRef(String issuer, String keyId) {
+    }
+
+    private static RejectionReason reasonFor(RuntimeException e) {
+        if (e instanceof ExpiredJwtException) {
+            return RejectionReason.EXPIRED;
+        }
+
+        if (e instanceof PrematureJwtException) {
+            return RejectionReason.PREMATURE;
+        }
+
+        if (e instanceof SignatureException) {
+            return RejectionReason.BAD_SIGNATURE;
+        }
+
+        if (e instanceof UnsupportedJwtException || e instanceof WeakKeyException) {
+            return RejectionReason.UNSUPPORTED;
+        }
+
+        return RejectionReason.MALFORMED; // Including CompressionException, and anything jjwt adds later.
+    }
+}
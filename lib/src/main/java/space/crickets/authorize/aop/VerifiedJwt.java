@@ -0,0 +1,64 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.Claims;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A JWT that has passed verification, plus anything we've worked out from it that's worth keeping around for
+ * as long as the JWT itself is (see VerifiedTokenCache).
+ */
+public final class VerifiedJwt {
+    private final io.jsonwebtoken.Jwt<?, Claims> jwt;
+    private final Set<String> claimNames; // The claims that were read out of the JWT. Null means all of them.
+
+    // The JWT's "scp" claim as a ScopeRegistry bitset. Worked out on first use. If two threads race to do that,
+    // they both come up with the same answer, so no locking needed.
+    private volatile ScopeBits scopeBits;
+
+    private record ScopeBits(long[] bits, int registrySize) {
+    }
+
+    public VerifiedJwt(io.jsonwebtoken.Jwt<?, Claims> jwt) {
+        this(jwt, null);
+    }
+
+    /**
+     * For a JWT that only had some of its claims read out of it. See FastJwtParser.
+     */
+    public VerifiedJwt(io.jsonwebtoken.Jwt<?, Claims> jwt, Set<String> claimNames) {
+        this.jwt = jwt;
+        this.claimNames = claimNames;
+    }
+
+    public io.jsonwebtoken.Jwt<?, Claims> jwt() {
+        return jwt;
+    }
+
+    public Claims claims() {
+        return jwt.getBody();
+    }
+
+    /**
+     * False if any of these claims weren't read out of the JWT, so we can't say whether it has them.
+     * Null means all claims.
+     */
+    boolean hasRead(Set<String> claimNames) {
+        return this.claimNames == null || (claimNames != null && this.claimNames.containsAll(claimNames));
+    }
+
+    long[] scopeBits(ScopeRegistry scopeRegistry) {
+        ScopeBits scopeBits = this.scopeBits;
+        int registrySize = scopeRegistry.size();
+
+        // Rebuild if scopes were interned since last time, in case this JWT has one of them.
+        if (scopeBits == null || scopeBits.registrySize() != registrySize) {
+            List<?> scopes = claims().get("scp", List.class);
+            scopeBits = new ScopeBits(scopeRegistry.bitsOf(scopes, registrySize), registrySize);
+            this.scopeBits = scopeBits;
+        }
+
+        return scopeBits.bits();
+    }
+}
@@ -0,0 +1,63 @@
+package space.crickets.authorize.aop;
+
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * The JWT that the @Authorize method currently running on this thread was authorized with. When that method calls
+ * other @Authorize beans with the same token, as layered services tend to, they pick the JWT up from here instead of
+ * verifying its signature all over again.
+ * <p>
+ * Only ever holds one entry per thread, and only while an @Authorize method is running, so it stays cheap with lots
+ * of (virtual) threads and doesn't leak into whatever a pooled thread does next. ScopedValue would fit better, but
+ * it isn't final in the Java versions we support.
+ */
+final class VerifiedJwtContext {
+    private static final ThreadLocal<Entry> current = new ThreadLocal<>();
+
+    record Entry(String token, VerifiedJwt jwt, long expiresAtMillis) {
+    }
+
+    private VerifiedJwtContext() {
+    }
+
+    /**
+     * Null unless an enclosing @Authorize method verified this very token, read enough of it, and it hasn't
+     * expired since.
+     */
+    static VerifiedJwt lookUp(String token, Set<String> claimNames) {
+        Entry entry = current.get();
+
+        if (entry != null
+                && entry.token().equals(token)
+                && entry.jwt().hasRead(claimNames)
+                && entry.expiresAtMillis() > System.currentTimeMillis()) {
+            return entry.jwt();
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes `jwt` the current one. Hand what this returns to exit() once the method is done.
+     */
+    static Entry enter(String token, VerifiedJwt jwt) {
+        Entry previous = current.get();
+
+        if (previous != null && previous.jwt() == jwt) {
+            return previous; // Nested call with the same JWT. Nothing to change.
+        }
+
+        Date expiration = jwt.claims().getExpiration();
+        current.set(new Entry(token, jwt, expiration != null ? expiration.getTime() : Long.MAX_VALUE));
+        return previous;
+    }
+
+    static void exit(Entry previous) {
+        if (previous == null) {
+            current.remove(); // Outermost call is done.
+        } else {
+            current.set(previous);
+        }
+    }
+}
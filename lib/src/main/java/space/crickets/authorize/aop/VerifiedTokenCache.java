@@ -0,0 +1,103 @@
+package space.crickets.authorize.aop;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.jsonwebtoken.JwsHeader;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Remembers JWTs that have already passed verification, keyed by the raw token string.
+ * <p>
+ * Clients tend to send the same bearer token over and over until it expires, and re-verifying it every time
+ * (base64 decode, JSON parse, RSA signature check) is the most expensive thing this library does. A hit here
+ * skips all of that.
+ * <p>
+ * Entries never outlive the token's own "exp" claim, and are also dropped after maxAge or when the cache
+ * grows past maxSize (least recently used first). This is off unless the
+ * "authorize.verified-token-cache.max-size" property is set.
+ * <p>
+ * Nor do they outlive their signing key: TokenVerifier has forgetKeys() called whenever a key drops out of the JWKS
+ * response. With a retired key grace period (see JwksSettings), a token re-verified against the retired key during
+ * the grace period can be served from here for up to maxAge after it ends.
+ */
+public class VerifiedTokenCache {
+    private final Cache<String, Entry> cache; // null means caching is turned off
+
+    private record Entry(VerifiedJwt verifiedJwt, long expiresAtMillis, String keyId) {
+    }
+
+    public VerifiedTokenCache(long maxSize, Duration maxAge) {
+        this.cache = maxSize > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(maxSize)
+                        .expireAfterWrite(maxAge)
+                        .build()
+                : null;
+    }
+
+    public static VerifiedTokenCache disabled() {
+        return new VerifiedTokenCache(0, Duration.ZERO);
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Returns the previously verified JWT, or null if we haven't seen this token or it has since expired.
+     */
+    public VerifiedJwt get(String token) {
+        if (cache == null || token == null) {
+            return null;
+        }
+
+        Entry entry = cache.getIfPresent(token);
+
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiresAtMillis() <= System.currentTimeMillis()) {
+            cache.invalidate(token); // The token expired while sitting in the cache.
+            return null;
+        }
+
+        return entry.verifiedJwt();
+    }
+
+    /**
+     * Only call this with a JWT that has just been verified.
+     */
+    public void put(String token, VerifiedJwt verifiedJwt) {
+        if (cache == null || token == null) {
+            return;
+        }
+
+        Date expiration = verifiedJwt.claims().getExpiration();
+        long expiresAtMillis = expiration != null ? expiration.getTime() : Long.MAX_VALUE;
+
+        if (expiresAtMillis > System.currentTimeMillis()) {
+            cache.put(token, new Entry(verifiedJwt, expiresAtMillis, keyIdOf(verifiedJwt)));
+        }
+    }
+
+    /**
+     * Drops every JWT signed with one of these keys, since they're no longer to be trusted. Key IDs are only unique
+     * per issuer, so this may drop a few JWTs from other issuers too. They just get verified again.
+     */
+    public void forgetKeys(Set<String> keyIds) {
+        if (cache == null) {
+            return;
+        }
+
+        // Keys don't get removed often, so a walk over the whole cache is fine.
+        cache.asMap().values().removeIf(entry -> entry.keyId() != null && keyIds.contains(entry.keyId()));
+    }
+
+    private static String keyIdOf(VerifiedJwt verifiedJwt) {
+        return verifiedJwt.jwt().getHeader() instanceof JwsHeader<?> header ? header.getKeyId() : null;
+    }
+}
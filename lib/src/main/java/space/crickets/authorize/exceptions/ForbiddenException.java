@@ -1,15 +1,80 @@
 package space.crickets.authorize.exceptions;
 
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
 /**
  * Indicates that JWT verification failed. Spring Boot applications should intercept these to return the
  * 403 response code.
+ * <p>
+ * The ones this library throws say why in reason(), and only work out their message if someone asks for it.
+ * Under RejectionMode.FAST they're shared, stackless instances instead. See RejectionMode.
  */
 public class ForbiddenException extends RuntimeException {
+    private static final Map<RejectionReason, ForbiddenException> STACKLESS = new EnumMap<>(RejectionReason.class);
+
+    static {
+        for (RejectionReason reason : RejectionReason.values()) {
+            STACKLESS.put(reason, new ForbiddenException(reason));
+        }
+    }
+
+    private final RejectionReason reason; // Null if thrown by the application.
+    private final Supplier<String> lazyMessage;
+    private String renderedMessage;
+
     public ForbiddenException(String message) {
         super(message);
+        this.reason = null;
+        this.lazyMessage = null;
     }
 
     public ForbiddenException(String message, Throwable cause) {
         super(message, cause);
+        this.reason = null;
+        this.lazyMessage = null;
+    }
+
+    /**
+     * `message` is only called if getMessage() is, e.g. when the exception gets logged.
+     */
+    public ForbiddenException(RejectionReason reason, Supplier<String> message, Throwable cause) {
+        super(null, cause);
+        this.reason = reason;
+        this.lazyMessage = message;
+    }
+
+    private ForbiddenException(RejectionReason reason) {
+        super(reason.summary(), null, false, false);
+        this.reason = reason;
+        this.lazyMessage = null;
+    }
+
+    /**
+     * One shared instance per reason, with no stack trace, cause or specifics. Free to throw.
+     */
+    public static ForbiddenException stackless(RejectionReason reason) {
+        return STACKLESS.get(reason);
+    }
+
+    public RejectionReason reason() {
+        return reason;
+    }
+
+    @Override
+    public String getMessage() {
+        if (lazyMessage == null) {
+            return super.getMessage();
+        }
+
+        // Racy, but harmlessly so: at worst two threads each render the same message.
+        String message = renderedMessage;
+        if (message == null) {
+            message = lazyMessage.get();
+            renderedMessage = message;
+        }
+
+        return message;
     }
 }
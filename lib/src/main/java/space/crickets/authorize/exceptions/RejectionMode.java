@@ -0,0 +1,34 @@
+package space.crickets.authorize.exceptions;
+
+import java.util.function.Supplier;
+
+/**
+ * What a rejection costs. Set with the "authorize.rejection-mode" property.
+ */
+public enum RejectionMode {
+    /**
+     * The default. Each rejection gets a ForbiddenException of its own, with a stack trace, a cause if there was one,
+     * and the specifics (which scopes, which claim) in its message.
+     */
+    DETAILED,
+
+    /**
+     * Every rejection for the same reason throws the same preallocated, stackless ForbiddenException. Its message only
+     * gives the reason. For services that get flooded with bad tokens, where rejecting one should cost less than
+     * accepting one, not more.
+     */
+    FAST;
+
+    /**
+     * `message` is only called if someone reads it.
+     */
+    public ForbiddenException reject(RejectionReason reason, Supplier<String> message, Throwable cause) {
+        return this == FAST
+                ? ForbiddenException.stackless(reason)
+                : new ForbiddenException(reason, message, cause);
+    }
+
+    public ForbiddenException reject(RejectionReason reason, Supplier<String> message) {
+        return reject(reason, message, null);
+    }
+}
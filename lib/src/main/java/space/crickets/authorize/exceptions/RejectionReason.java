@@ -0,0 +1,49 @@
+package space.crickets.authorize.exceptions;
+
+/**
+ * Why a request was turned away with a ForbiddenException.
+ */
+public enum RejectionReason {
+    /** The JWT's "exp" is in the past. */
+    EXPIRED("JWT has expired"),
+
+    /** The JWT's "nbf" is in the future. */
+    PREMATURE("JWT is not valid yet"),
+
+    /** The JWT's signature doesn't check out against the signing key. */
+    BAD_SIGNATURE("JWT signature does not check out"),
+
+    /** The JWT couldn't be parsed at all, or wasn't provided. */
+    MALFORMED("Unable to parse JWT"),
+
+    /** The JWT's "alg" can't be used with its signing key, e.g. HS256 naming an RSA key, or a key too short for it. */
+    UNSUPPORTED("JWT algorithm does not fit its signing key"),
+
+    /** The JWT was signed with a key we don't have. */
+    UNKNOWN_KEY("Unknown key id in JWT"),
+
+    /** We needed fresh keys from the JWKS endpoint and couldn't get them in time. */
+    KEYS_UNAVAILABLE("Unable to fetch signing keys"),
+
+    /** The JWT has none of the scopes listed in @Authorize. */
+    MISSING_SCOPE("JWT does not have any of the required scopes"),
+
+    /** The JWT lacks a claim named in @MatchClaim. */
+    MISSING_CLAIM("JWT is missing a required claim"),
+
+    /** A claim in the JWT doesn't match the @MatchClaim argument. */
+    CLAIM_MISMATCH("JWT claim does not match argument");
+
+    private final String summary;
+
+    RejectionReason(String summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * A one-line message, with none of the specifics.
+     */
+    public String summary() {
+        return summary;
+    }
+}
@@ -0,0 +1,52 @@
+package space.crickets.authorize.metrics;
+
+import space.crickets.authorize.exceptions.RejectionReason;
+
+/**
+ * Hooks for timing and counting what the library does, so that you can tell whether a slow request was slow
+ * in your controller or in @Authorize.
+ * <p>
+ * Every method does nothing by default. AppConfig wires in MicrometerAuthorizeMetrics if Micrometer is on the
+ * classpath and there's a MeterRegistry bean, otherwise NOOP. Implementations are called on request threads,
+ * so they must be thread-safe and cheap.
+ */
+public interface AuthorizeMetrics {
+    AuthorizeMetrics NOOP = new AuthorizeMetrics() {
+    };
+
+    /**
+     * Time spent checking a call to an @Authorize method (JWT, scopes and claims), whether it passed or not.
+     */
+    default void verification(long nanos) {
+    }
+
+    /**
+     * The signing key for a JWT was already cached.
+     */
+    default void keyCacheHit() {
+    }
+
+    /**
+     * The signing key for a JWT wasn't cached.
+     */
+    default void keyCacheMiss() {
+    }
+
+    /**
+     * Time a request thread spent waiting on someone else's fetch of keys.
+     */
+    default void keyFetchWait(long nanos) {
+    }
+
+    /**
+     * A call to the JWKS endpoint finished, successfully or not.
+     */
+    default void jwksFetch(long nanos, boolean success) {
+    }
+
+    /**
+     * A request was turned away with a ForbiddenException.
+     */
+    default void rejection(RejectionReason reason) {
+    }
+}
@@ -0,0 +1,99 @@
+package space.crickets.authorize.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.context.ApplicationContext;
+import space.crickets.authorize.exceptions.RejectionReason;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records AuthorizeMetrics to a Micrometer MeterRegistry. Micrometer is an optional dependency, so don't touch
+ * this class unless it's on the classpath.
+ * <p>
+ * Meters are all registered up front, so recording is just an increment or a histogram update.
+ */
+public class MicrometerAuthorizeMetrics implements AuthorizeMetrics {
+    private final Timer verification;
+    private final Counter keyCacheHits;
+    private final Counter keyCacheMisses;
+    private final Timer keyFetchWait;
+    private final Timer jwksFetchSuccesses;
+    private final Timer jwksFetchFailures;
+    private final Map<RejectionReason, Counter> rejections = new EnumMap<>(RejectionReason.class);
+
+    public MicrometerAuthorizeMetrics(MeterRegistry registry) {
+        this.verification = Timer.builder("authorize.verification")
+                .description("Time spent checking calls to @Authorize methods")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.keyCacheHits = Counter.builder("authorize.keys.cache")
+                .description("Signing key lookups")
+                .tag("result", "hit")
+                .register(registry);
+        this.keyCacheMisses = Counter.builder("authorize.keys.cache")
+                .description("Signing key lookups")
+                .tag("result", "miss")
+                .register(registry);
+        this.keyFetchWait = Timer.builder("authorize.keys.wait")
+                .description("Time request threads spent waiting on a fetch of signing keys")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.jwksFetchSuccesses = Timer.builder("authorize.jwks.fetch")
+                .description("Calls to the JWKS endpoint")
+                .tag("outcome", "success")
+                .register(registry);
+        this.jwksFetchFailures = Timer.builder("authorize.jwks.fetch")
+                .description("Calls to the JWKS endpoint")
+                .tag("outcome", "failure")
+                .register(registry);
+
+        for (RejectionReason reason : RejectionReason.values()) {
+            rejections.put(reason, Counter.builder("authorize.rejections")
+                    .description("Requests turned away with a ForbiddenException")
+                    .tag("reason", reason.name().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+    /**
+     * Returns null if the application has no MeterRegistry bean.
+     */
+    public static MicrometerAuthorizeMetrics fromContext(ApplicationContext applicationContext) {
+        MeterRegistry registry = applicationContext.getBeanProvider(MeterRegistry.class).getIfAvailable();
+        return registry != null ? new MicrometerAuthorizeMetrics(registry) : null;
+    }
+
+    @Override
+    public void verification(long nanos) {
+        verification.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void keyCacheHit() {
+        keyCacheHits.increment();
+    }
+
+    @Override
+    public void keyCacheMiss() {
+        keyCacheMisses.increment();
+    }
+
+    @Override
+    public void keyFetchWait(long nanos) {
+        keyFetchWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void jwksFetch(long nanos, boolean success) {
+        (success ? jwksFetchSuccesses : jwksFetchFailures).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void rejection(RejectionReason reason) {
+        rejections.get(reason).increment();
+    }
+}
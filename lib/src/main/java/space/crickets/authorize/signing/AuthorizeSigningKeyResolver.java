@@ -1,124 +1,135 @@
 package space.crickets.authorize.signing;
 
-import com.google.gson.Gson;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwsHeader;
 import io.jsonwebtoken.SigningKeyResolverAdapter;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.beans.factory.annotation.Value;
+import okhttp3.CacheControl;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
-import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
 
 import javax.annotation.PostConstruct;
-import java.io.IOException;
+import javax.annotation.PreDestroy;
 import java.security.Key;
 import java.security.PublicKey;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 @Component
 @Profile("!test")
 public class AuthorizeSigningKeyResolver extends SigningKeyResolverAdapter {
-    private final Request publicKeysRequest;
-    private final OkHttpClient okHttpClient = new OkHttpClient();
-    private final PublicKeyBuilder publicKeyBuilder = new PublicKeyBuilder();
-    private static final Gson gson = new Gson();
-    private final Lock lock = new ReentrantLock();
-    private Instant rotatedAt = Instant.EPOCH; // i.e. not yet
-
-    // Stores/caches public keys.
-    // This is volatile so that its contents become visible to all other threads after a write operation immediately.
-    private volatile Map<String, PublicKey> publicKeys = new HashMap<>();
-
-    public AuthorizeSigningKeyResolver(@Qualifier("jwksUrl") String jwksUrl) {
-        this.publicKeysRequest = new Request.Builder()
-                .url(jwksUrl)
-                .addHeader("Accept", "application/json")
-                .get()
-                .build();
+    // Don't let a JWKS endpoint with a tiny max-age talk us into hammering it.
+    static final Duration MIN_MAX_AGE = Duration.ofMinutes(1);
+
+    // After starting from a snapshot, wait up to this long before fetching fresh keys, so that a mass redeploy
+    // doesn't have every instance hit the JWKS endpoint in the same second.
+    static final Duration SNAPSHOT_REFRESH_JITTER = Duration.ofSeconds(30);
+
+    // Keys from authorize.jwks.url. Used for any JWT whose issuer isn't in keysByIssuer.
+    private final JwksKeySource defaultKeys;
+
+    // Keys from authorize.jwks.issuer-urls, by "iss". Fixed at startup and never modified, so reads need no locking.
+    // Each source keeps its own keys, so a lookup is effectively by (iss, kid).
+    private final Map<String, JwksKeySource> keysByIssuer;
+
+    public AuthorizeSigningKeyResolver(String jwksUrl) {
+        this(new JwksSettings(jwksUrl));
+    }
+
+    public AuthorizeSigningKeyResolver(JwksSettings settings) {
+        this(settings, AuthorizeMetrics.NOOP);
+    }
+
+    @Autowired
+    public AuthorizeSigningKeyResolver(JwksSettings settings, AuthorizeMetrics metrics) {
+        this.defaultKeys = new JwksKeySource(settings, metrics);
+
+        Map<String, JwksKeySource> keysByIssuer = new HashMap<>();
+        settings.issuerJwksUrls().keySet().forEach(issuer ->
+                keysByIssuer.put(issuer, new JwksKeySource(settings.forIssuer(issuer), metrics))
+        );
+        this.keysByIssuer = Map.copyOf(keysByIssuer);
     }
 
     /**
-     * Done once at startup, then later as needed.
+     * Done once at startup, for every issuer. Uses the snapshot file if there is one, otherwise fetches keys over http.
      */
     @PostConstruct
-    public synchronized void fetchKeys() {
-        try (Response response = okHttpClient.newCall(publicKeysRequest).execute()) {
-            if (!response.isSuccessful()) {
-                throw new RuntimeException("Call to " + publicKeysRequest.url() + " failed");
-            }
-
-            assert response.body() != null;
-            JsonWebKeys jsonWebKeys = gson.fromJson(
-                    response.body().string(),
-                    JsonWebKeys.class
-            );
-
-            publicKeys.clear();
-            jsonWebKeys.keys().forEach(jsonWebKey -> {
-                PublicKey publicKey = publicKeyBuilder.buildPublicKey(jsonWebKey);
-                publicKeys.put(jsonWebKey.kid(), publicKey); // should I clear out old keys?
-            });
-
-            rotatedAt = Instant.now();
-
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+    public void loadKeys() {
+        defaultKeys.loadKeys();
+        keysByIssuer.values().forEach(JwksKeySource::loadKeys);
     }
 
     /**
-     * Return the public key from the JWKS url given the key ID, either from local cache or over http.
+     * Fetches keys from authorize.jwks.url over http. Done at startup (unless there's a snapshot), then later as
+     * needed.
      */
-    @Override
-    public Key resolveSigningKey(JwsHeader header, Claims claims) {
-        String keyId = header.getKeyId();
-        PublicKey publicKey = publicKeys.get(keyId);
-
-        if (publicKey != null) {
-            return publicKey;
-        }
+    public void fetchKeys() {
+        defaultKeys.fetchKeys();
+    }
 
-        // If it's null, the caller probably used a newly rotated-in key. Or it's a fake key id. DOS?
+    @PreDestroy
+    public void stopRefreshing() {
+        defaultKeys.stopRefreshing();
+        keysByIssuer.values().forEach(JwksKeySource::stopRefreshing);
+    }
 
-        lock.lock(); // First thread to reach this line goes in, the rest wait here.
+    /**
+     * How long until the next background refresh of keys from authorize.jwks.url.
+     */
+    Duration refreshDelay(CacheControl cacheControl) {
+        return defaultKeys.refreshDelay(cacheControl);
+    }
 
-        try {
-            // When that first thread got to the 'finally' block and unlocked this lock, all the rest
-            // of the queued up threads can benefit from the new keys being in our cache.
-            publicKey = publicKeys.get(keyId);
+    /**
+     * Return the public key from the issuer's JWKS url given the key ID, either from local cache or over http.
+     */
+    @Override
+    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+        return keysFor(claims.getIssuer()).resolveVerifier(header.getKeyId()).publicKey();
+    }
 
-            if (publicKey != null) {
-                return publicKey;
-            }
+    /**
+     * Same as resolveSigningKey, but hands back the key along with ready-to-use Signature objects, for callers
+     * that check JWS signatures themselves rather than through jjwt.
+     */
+    public SigningKeyVerifier resolveVerifier(String issuer, String keyId) {
+        return keysFor(issuer).resolveVerifier(keyId);
+    }
 
-            // Assuming keys got rotated. Let's get the new ones. Only that first thread should hit this.
-            Instant now = Instant.now();
+    public SigningKeyVerifier resolveVerifier(String keyId) {
+        return defaultKeys.resolveVerifier(keyId);
+    }
 
-            // Guard against some kind of Denial Of Service attack.
-            if (RotationClock.hasBeenLongEnoughSinceLastRotation(rotatedAt)) {
-                fetchKeys();
-            }
-        } finally {
-            lock.unlock();
-        }
+    /**
+     * Same as resolveSigningKey, but never blocks the calling thread: if the key has to be fetched, the returned
+     * future completes when it has been (or fails with a ForbiddenException). For reactive callers, who must
+     * not block an event loop thread. Doesn't count towards the key cache metrics; the verify that follows does.
+     */
+    public CompletableFuture<PublicKey> resolveSigningKeyAsync(String issuer, String keyId) {
+        return keysFor(issuer).resolveSigningKeyAsync(keyId);
+    }
 
-        // Only that first thread should get here.
-        publicKey = publicKeys.get(keyId);
+    public CompletableFuture<PublicKey> resolveSigningKeyAsync(String keyId) {
+        return defaultKeys.resolveSigningKeyAsync(keyId);
+    }
 
-        if (publicKey != null) {
-            return publicKey;
-        }
+    /**
+     * `listener` is told the IDs of keys that have dropped out of any issuer's JWKS response, so that it can stop
+     * trusting anything verified with them. See VerifiedTokenCache.
+     */
+    public void onKeysRemoved(Consumer<Set<String>> listener) {
+        defaultKeys.onKeysRemoved(listener);
+        keysByIssuer.values().forEach(keys -> keys.onKeysRemoved(listener));
+    }
 
-        // Hmm, someone asked for a key that's not in our newly updated cache. Could it be a key
-        // from over 2 rotations ago? Or someone trying to hack in?
-        throw new ForbiddenException("Unknown key id in JWT: " + keyId);
+    private JwksKeySource keysFor(String issuer) {
+        JwksKeySource keys = issuer != null ? keysByIssuer.get(issuer) : null;
+        return keys != null ? keys : defaultKeys;
     }
 }
@@ -0,0 +1,65 @@
+package space.crickets.authorize.signing;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Peeks at a compact JWS (header.payload.signature) without verifying it. Only use what comes out of here
+ * to decide what to do next, e.g. which key to go and fetch. Never to make an authorization decision.
+ */
+public final class CompactJws {
+    private CompactJws() {
+    }
+
+    /**
+     * The "kid" from the JWS header, or null if there isn't one or the header can't be read.
+     */
+    public static String keyId(String compactJws) {
+        if (compactJws == null) {
+            return null;
+        }
+
+        int headerEnd = compactJws.indexOf('.');
+        if (headerEnd <= 0) {
+            return null;
+        }
+
+        return stringMember(compactJws.substring(0, headerEnd), "kid");
+    }
+
+    /**
+     * The "iss" claim from the payload, or null if there isn't one or the payload can't be read.
+     */
+    public static String issuer(String compactJws) {
+        if (compactJws == null) {
+            return null;
+        }
+
+        int headerEnd = compactJws.indexOf('.');
+        int payloadEnd = headerEnd < 0 ? -1 : compactJws.indexOf('.', headerEnd + 1);
+        if (payloadEnd < 0) {
+            return null;
+        }
+
+        return stringMember(compactJws.substring(headerEnd + 1, payloadEnd), "iss");
+    }
+
+    private static String stringMember(String base64UrlJson, String name) {
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(base64UrlJson);
+            JsonElement element = JsonParser.parseString(new String(json, StandardCharsets.UTF_8));
+
+            if (element instanceof JsonObject object && object.get(name) != null) {
+                return object.get(name).getAsString();
+            }
+        } catch (RuntimeException e) {
+            // Not our problem here. JwtParser will reject it properly.
+        }
+
+        return null;
+    }
+}
@@ -159,7 +159,54 @@ public record JsonWebKey (
          *    than 256.  Implementations using such libraries will need to take
          *    care to omit the extra octet from the base64url-encoded
          */
-        String n
+        String n,
+
+        /*
+         * From <a href="https://tools.ietf.org/html/rfc7518#section-6.2.1.1">rfc7518</a>
+         * <p>
+         *    The "crv" (curve) parameter identifies the cryptographic curve used
+         *    with the key.  Curve values from [DSS] used by this specification
+         *    are:
+         * <p>
+         *    o  "P-256"
+         *    o  "P-384"
+         *    o  "P-521"
+         * <p>
+         * And from <a href="https://tools.ietf.org/html/rfc8037#section-2">rfc8037</a>, for "kty" "OKP":
+         * <p>
+         *    The parameter "crv" MUST be present and contain the subtype of the
+         *    key (from the "JSON Web Elliptic Curve" registry).
+         */
+        String crv,
+
+        /*
+         * From <a href="https://tools.ietf.org/html/rfc7518#section-6.2.1.2">rfc7518</a>
+         * <p>
+         *    The "x" (x coordinate) parameter contains the x coordinate for the
+         *    Elliptic Curve point.  It is represented as the base64url encoding of
+         *    the octet string representation of the coordinate, as defined in
+         *    Section 2.3.5 of SEC1 [SEC1].  The length of this octet string MUST
+         *    be the full size of a coordinate for the curve specified in the "crv"
+         *    parameter.
+         * <p>
+         * And from <a href="https://tools.ietf.org/html/rfc8037#section-2">rfc8037</a>, for "kty" "OKP":
+         * <p>
+         *    The parameter "x" MUST be present and contain the public key encoded
+         *    using the base64url [RFC4648] encoding.
+         */
+        String x,
+
+        /*
+         * From <a href="https://tools.ietf.org/html/rfc7518#section-6.2.1.3">rfc7518</a>
+         * <p>
+         *    The "y" (y coordinate) parameter contains the y coordinate for the
+         *    Elliptic Curve point.  It is represented as the base64url encoding of
+         *    the octet string representation of the coordinate, as defined in
+         *    Section 2.3.5 of SEC1 [SEC1].  The length of this octet string MUST
+         *    be the full size of a coordinate for the curve specified in the "crv"
+         *    parameter.
+         */
+        String y
 ) {
     public JsonWebKey(String keyId, String modulus) {
         this(
@@ -169,7 +216,24 @@ public record JsonWebKey (
             "RS256",
             keyId,
             "AQAB",
-            modulus
+            modulus,
+            null,
+            null,
+            null
         );
     }
+
+    /**
+     * An elliptic curve key, e.g. for ES256 (crv "P-256").
+     */
+    public static JsonWebKey ec(String keyId, String alg, String crv, String x, String y) {
+        return new JsonWebKey("EC", "sig", null, alg, keyId, null, null, crv, x, y);
+    }
+
+    /**
+     * An octet key pair, e.g. for EdDSA (crv "Ed25519").
+     */
+    public static JsonWebKey okp(String keyId, String crv, String x) {
+        return new JsonWebKey("OKP", "sig", null, "EdDSA", keyId, null, null, crv, x, null);
+    }
 }
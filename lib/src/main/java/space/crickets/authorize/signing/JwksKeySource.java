@@ -0,0 +1,531 @@
+package space.crickets.authorize.signing;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.Gson;
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.exceptions.RejectionReason;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * One JWKS endpoint: its keys, and everything involved in keeping them fresh. AuthorizeSigningKeyResolver has one of
+ * these per issuer.
+ */
+final class JwksKeySource {
+    private static final Log log = LogFactory.getLog(JwksKeySource.class);
+
+    private final Request publicKeysRequest;
+    private final Path snapshotFile;
+    private final SharedSnapshot sharedSnapshot; // Null unless the snapshot is shared with other JVMs.
+    private final Duration refreshInterval;
+    private final Duration fetchTimeout;
+    private final Duration fetchWaitTimeout;
+    private final Duration retiredKeyGracePeriod;
+    private final RejectionMode rejectionMode;
+    private final AuthorizeMetrics metrics;
+    private final OkHttpClient okHttpClient;
+    private final PublicKeyBuilder publicKeyBuilder = new PublicKeyBuilder();
+    private static final Gson gson = new Gson();
+
+    // Key IDs we recently turned away, each with the keys it wasn't in. Only counts while those are still the current
+    // keys, so whatever keys get published next (fetched or from a snapshot) get a fair look at every key ID.
+    // Checking this needs no locks, so repeat offenders cost next to nothing. Null means the cache is turned off.
+    private final Cache<String, KeySnapshot> rejectedKeyIds;
+
+    // The fetch of keys currently in progress, if any. See fetchKeysAsync().
+    private final AtomicReference<CompletableFuture<Void>> inFlightFetch = new AtomicReference<>();
+
+    // Fetches keys off the request threads, both on a schedule and on demand.
+    // Daemon thread, so it never holds up JVM shutdown.
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "authorize-jwks-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<ScheduledFuture<?>> nextRefresh = new AtomicReference<>();
+
+    // Held while fetching or installing keys, so that only one of those happens at a time. A ReentrantLock rather
+    // than synchronized: blocking I/O while holding a monitor pins a virtual thread to its carrier thread.
+    private final ReentrantLock fetchLock = new ReentrantLock();
+
+    // Told the IDs of keys that have dropped out of the JWKS response. See onKeysRemoved().
+    private final List<Consumer<Set<String>>> keysRemovedListeners = new CopyOnWriteArrayList<>();
+
+    // Stores/caches public keys, each with its pre-warmed Signature objects (see SigningKeyVerifier), along with
+    // when they were fetched. Read without locks; a refresh builds the next KeySnapshot and swaps it in.
+    private volatile KeySnapshot keys = KeySnapshot.EMPTY;
+
+    JwksKeySource(JwksSettings settings, AuthorizeMetrics metrics) {
+        this.publicKeysRequest = new Request.Builder()
+                .url(settings.jwksUrl())
+                .addHeader("Accept", "application/json")
+                .get()
+                .build();
+        this.snapshotFile = settings.snapshotFile();
+        this.sharedSnapshot = snapshotFile != null && settings.shareSnapshot() ? new SharedSnapshot(snapshotFile) : null;
+        this.refreshInterval = settings.refreshInterval();
+        this.fetchTimeout = settings.fetchTimeout();
+        this.fetchWaitTimeout = settings.fetchWaitTimeout();
+        this.retiredKeyGracePeriod = settings.retiredKeyGracePeriod();
+        this.rejectionMode = settings.rejectionMode();
+        this.metrics = metrics;
+        this.rejectedKeyIds = settings.rejectedKeyIdCacheSize() > 0
+                ? CacheBuilder.newBuilder()
+                        .maximumSize(settings.rejectedKeyIdCacheSize())
+                        .expireAfterWrite(settings.rejectedKeyIdTtl())
+                        .build()
+                : null;
+        this.okHttpClient = new OkHttpClient.Builder()
+                .callTimeout(settings.fetchTimeout())
+                .build();
+    }
+
+    /**
+     * Done once at startup. Uses the snapshot file if there is one, otherwise fetches keys over http.
+     */
+    void loadKeys() {
+        if (sharedSnapshot != null) {
+            sharedSnapshot.watch(() -> {
+                try {
+                    refresher.execute(this::reloadSharedSnapshot);
+                } catch (RejectedExecutionException e) {
+                    // We've been shut down.
+                }
+            });
+        }
+
+        if (snapshotFile != null && loadSnapshot(Instant.EPOCH)) {
+            // The snapshot may be stale. A JWT signed with a key it doesn't have will still trigger a fetch,
+            // since rotatedAt is EPOCH.
+            if (isRefreshingInBackground()) {
+                refresher.schedule(
+                        this::refreshInBackground,
+                        ThreadLocalRandom.current().nextLong(AuthorizeSigningKeyResolver.SNAPSHOT_REFRESH_JITTER.toMillis() + 1),
+                        TimeUnit.MILLISECONDS
+                );
+            }
+            return;
+        }
+
+        fetchKeys();
+    }
+
+    /**
+     * Fetches keys over http. Done at startup (unless there's a snapshot), then later as needed.
+     * If the snapshot is shared, and another JVM fetched keys while we waited our turn, uses those instead.
+     */
+    void fetchKeys() {
+        fetchLock.lock();
+
+        try {
+            if (sharedSnapshot == null) {
+                fetchKeysOverHttp();
+                return;
+            }
+
+            Instant requestedAt = Instant.now();
+            boolean locked = sharedSnapshot.whileLocked(() -> {
+                if (!sharedSnapshot.changedSince(requestedAt) || !loadSnapshot(Instant.now())) {
+                    fetchKeysOverHttp();
+                    return;
+                }
+
+                scheduleRefresh(refreshInterval);
+            }, fetchTimeout); // Whoever has the lock should be done by then.
+
+            if (!locked) {
+                log.warn("Unable to lock JWKS snapshot " + snapshotFile + " in time; fetching keys without it");
+                fetchKeysOverHttp();
+            }
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    /**
+     * Another JVM wrote the shared snapshot.
+     */
+    private void reloadSharedSnapshot() {
+        fetchLock.lock();
+
+        try {
+            if (sharedSnapshot.changedSinceSeen() && loadSnapshot(Instant.now())) {
+                scheduleRefresh(refreshInterval); // They just fetched, so no need for us to any time soon.
+            }
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+
+    private void fetchKeysOverHttp() {
+        long startedAt = System.nanoTime();
+        boolean success = false;
+
+        try (Response response = okHttpClient.newCall(publicKeysRequest).execute()) {
+            if (!response.isSuccessful()) {
+                throw new RuntimeException("Call to " + publicKeysRequest.url() + " failed");
+            }
+
+            assert response.body() != null;
+            String json = response.body().string();
+
+            installKeys(json, Instant.now());
+
+            if (snapshotFile != null) {
+                writeSnapshot(json);
+            }
+
+            scheduleRefresh(refreshDelay(response.cacheControl()));
+            success = true;
+
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            metrics.jwksFetch(System.nanoTime() - startedAt, success);
+        }
+    }
+
+    private void installKeys(String json, Instant rotatedAt) {
+        JsonWebKeys jsonWebKeys = gson.fromJson(json, JsonWebKeys.class);
+
+        Map<String, SigningKeyVerifier> freshKeys = new HashMap<>();
+        jsonWebKeys.keys().forEach(jsonWebKey -> {
+            if (jsonWebKey.kid() == null) {
+                return; // No JWT could ask for it.
+            }
+
+            PublicKey publicKey = publicKeyBuilder.buildPublicKey(jsonWebKey);
+            // Its Signature pools are only filled in if FastJwtParser gets to use it.
+            freshKeys.put(jsonWebKey.kid(), SigningKeyVerifier.of(jsonWebKey, publicKey));
+        });
+
+        KeySnapshot previousKeys = keys;
+
+        // One volatile write. Readers see either all of the old keys or all of the new ones, never a mix.
+        keys = previousKeys.next(freshKeys, rotatedAt, retiredKeyGracePeriod);
+
+        Set<String> removedKeyIds = new HashSet<>(previousKeys.keys().keySet());
+        removedKeyIds.removeAll(freshKeys.keySet());
+
+        if (!removedKeyIds.isEmpty()) {
+            Set<String> keyIds = Set.copyOf(removedKeyIds);
+            keysRemovedListeners.forEach(listener -> listener.accept(keyIds));
+        }
+    }
+
+    /**
+     * `listener` is called with the IDs of any keys a refresh finds gone from the JWKS response, just after the
+     * refreshed keys are in place (so during any retiredKeyGracePeriod, not after it).
+     */
+    void onKeysRemoved(Consumer<Set<String>> listener) {
+        keysRemovedListeners.add(listener);
+    }
+
+    /**
+     * Returns false if there's no usable snapshot, in which case the caller should fetch keys instead.
+     */
+    private boolean loadSnapshot(Instant rotatedAt) {
+        if (!Files.isReadable(snapshotFile)) {
+            return false;
+        }
+
+        try {
+            installKeys(Files.readString(snapshotFile), rotatedAt);
+
+            if (sharedSnapshot != null) {
+                sharedSnapshot.markSeen();
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Ignoring unreadable JWKS snapshot " + snapshotFile, e);
+            return false;
+        }
+    }
+
+    /**
+     * Write to a temp file, then move it into place, so nobody ever reads a half-written snapshot.
+     */
+    private void writeSnapshot(String json) {
+        try {
+            Path directory = snapshotFile.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+
+            Path tempFile = Files.createTempFile(directory, snapshotFile.getFileName().toString(), ".tmp");
+            try {
+                Files.writeString(tempFile, json);
+                Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                if (sharedSnapshot != null) {
+                    sharedSnapshot.markSeen(); // So we don't go reloading our own snapshot.
+                }
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException e) {
+            // Not fatal. We've got the keys in memory; the snapshot only matters on the next startup.
+            log.warn("Unable to write JWKS snapshot " + snapshotFile, e);
+        }
+    }
+
+    void stopRefreshing() {
+        refresher.shutdownNow();
+
+        if (sharedSnapshot != null) {
+            sharedSnapshot.stopWatching();
+        }
+    }
+
+    private boolean isRefreshingInBackground() {
+        return !refreshInterval.isZero() && !refreshInterval.isNegative();
+    }
+
+    /**
+     * How long until the next background refresh. Honors the JWKS response's "Cache-Control: max-age" if present.
+     */
+    Duration refreshDelay(CacheControl cacheControl) {
+        if (cacheControl.maxAgeSeconds() > 0) {
+            Duration maxAge = Duration.ofSeconds(cacheControl.maxAgeSeconds());
+            return maxAge.compareTo(AuthorizeSigningKeyResolver.MIN_MAX_AGE) < 0
+                    ? AuthorizeSigningKeyResolver.MIN_MAX_AGE
+                    : maxAge;
+        }
+
+        return refreshInterval;
+    }
+
+    private void scheduleRefresh(Duration delay) {
+        if (!isRefreshingInBackground() || refresher.isShutdown()) {
+            return; // Background refreshing is turned off.
+        }
+
+        ScheduledFuture<?> previousRefresh = nextRefresh.getAndSet(
+                refresher.schedule(this::refreshInBackground, delay.toMillis(), TimeUnit.MILLISECONDS)
+        );
+
+        if (previousRefresh != null) {
+            previousRefresh.cancel(false); // Keys were just fetched some other way, so start the countdown over.
+        }
+    }
+
+    private void refreshInBackground() {
+        // fetchKeys() schedules the next refresh on success.
+        fetchKeysAsync().whenComplete((ignored, e) -> {
+            if (e != null) {
+                // Stale-while-revalidate: keep serving the keys we have and try again later.
+                log.warn("Background refresh of " + publicKeysRequest.url() + " failed; keeping current keys", e);
+                scheduleRefresh(refreshInterval);
+            }
+        });
+    }
+
+    /**
+     * The key with this ID, either from local cache or over http.
+     */
+    SigningKeyVerifier resolveVerifier(String keyId) {
+        SigningKeyVerifier verifier = keys.get(keyId);
+
+        if (verifier != null) {
+            metrics.keyCacheHit();
+            return verifier;
+        }
+
+        metrics.keyCacheMiss();
+
+        // If it's null, the caller probably used a newly rotated-in key. Or it's a fake key id. DOS?
+
+        CompletableFuture<Void> fetch = fetchIfAllowed(keyId);
+
+        if (fetch != null) {
+            awaitFetch(fetch);
+        }
+
+        return keyAfterFetch(keyId, fetch != null);
+    }
+
+    /**
+     * Same as resolveVerifier, but never blocks the calling thread. Callers prefetch with this and then verify, so
+     * it leaves the key cache hit/miss counts to resolveVerifier rather than counting every lookup twice.
+     */
+    CompletableFuture<PublicKey> resolveSigningKeyAsync(String keyId) {
+        SigningKeyVerifier verifier = keys.get(keyId);
+
+        if (verifier != null) {
+            return CompletableFuture.completedFuture(verifier.publicKey());
+        }
+
+        try {
+            CompletableFuture<Void> fetch = fetchIfAllowed(keyId);
+
+            if (fetch == null) {
+                return CompletableFuture.completedFuture(keyAfterFetch(keyId, false).publicKey());
+            }
+
+            // copy(), so that timing out only affects this caller, not everyone else sharing the fetch.
+            return fetch.copy()
+                    .orTimeout(fetchWaitTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .handle((ignored, e) -> {
+                        if (e != null) {
+                            metrics.rejection(RejectionReason.KEYS_UNAVAILABLE);
+                            throw rejectionMode.reject(
+                                    RejectionReason.KEYS_UNAVAILABLE,
+                                    () -> "Unable to fetch keys from " + publicKeysRequest.url(),
+                                    e
+                            );
+                        }
+
+                        return keyAfterFetch(keyId, true).publicKey();
+                    });
+        } catch (ForbiddenException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Returns the fetch of keys that the caller should wait on, or null if there's no point waiting
+     * (too soon since the last one). Throws if we've recently rejected this key ID.
+     */
+    private CompletableFuture<Void> fetchIfAllowed(String keyId) {
+        if (rejectedKeyIds != null && keyId != null && rejectedKeyIds.getIfPresent(keyId) == keys) {
+            metrics.rejection(RejectionReason.UNKNOWN_KEY);
+            // Same answer as last time: these are the very keys it wasn't in.
+            throw rejectionMode.reject(RejectionReason.UNKNOWN_KEY, () -> "Unknown key id in JWT: " + keyId, null);
+        }
+
+        CompletableFuture<Void> fetch = inFlightFetch.get();
+
+        // Guard against some kind of Denial Of Service attack.
+        if (fetch == null && RotationClock.hasBeenLongEnoughSinceLastRotation(keys.rotatedAt())) {
+            // Assuming keys got rotated. Let's get the new ones. If another thread beat us to it,
+            // this hands back the fetch that thread started instead of starting a second one.
+            fetch = fetchKeysAsync();
+        }
+
+        return fetch;
+    }
+
+    /**
+     * Second (and last) look in the cache, once any fetch is done. `fetched` is false if it was too soon to fetch.
+     */
+    private SigningKeyVerifier keyAfterFetch(String keyId, boolean fetched) {
+        KeySnapshot currentKeys = keys;
+        SigningKeyVerifier verifier = currentKeys.get(keyId);
+
+        if (verifier != null) {
+            return verifier;
+        }
+
+        // Hmm, someone asked for a key that's not in our newly updated cache. Could it be a key
+        // from over 2 rotations ago? Or someone trying to hack in?
+        // Only remembered if we just asked the JWKS endpoint, though. Otherwise it may be a key the endpoint has and
+        // we don't yet, which should get looked for as soon as RotationClock allows.
+        if (rejectedKeyIds != null && keyId != null && fetched) {
+            rejectedKeyIds.put(keyId, currentKeys);
+        }
+
+        metrics.rejection(RejectionReason.UNKNOWN_KEY);
+        throw rejectionMode.reject(RejectionReason.UNKNOWN_KEY, () -> "Unknown key id in JWT: " + keyId, null);
+    }
+
+    /**
+     * Single-flight: at most one fetch of keys is ever in progress. Everyone who needs fresh keys while
+     * it runs gets the same future.
+     */
+    private CompletableFuture<Void> fetchKeysAsync() {
+        CompletableFuture<Void> fetch = new CompletableFuture<>();
+
+        while (!inFlightFetch.compareAndSet(null, fetch)) {
+            CompletableFuture<Void> existing = inFlightFetch.get();
+
+            if (existing != null) {
+                return existing;
+            }
+        }
+
+        try {
+            refresher.execute(() -> {
+                try {
+                    fetchKeys();
+                    fetch.complete(null);
+                } catch (Throwable t) {
+                    fetch.completeExceptionally(t);
+                } finally {
+                    inFlightFetch.compareAndSet(fetch, null);
+                }
+            });
+        } catch (RejectedExecutionException e) { // We've been shut down.
+            inFlightFetch.compareAndSet(fetch, null);
+            fetch.completeExceptionally(e);
+        }
+
+        return fetch;
+    }
+
+    /**
+     * Request threads only wait a short, bounded time for keys. If the JWKS endpoint is slow or down,
+     * we'd rather send back a 403 than let every request thread pile up behind it.
+     */
+    private void awaitFetch(CompletableFuture<Void> fetch) {
+        long startedAt = System.nanoTime();
+
+        try {
+            fetch.get(fetchWaitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            metrics.rejection(RejectionReason.KEYS_UNAVAILABLE);
+            throw rejectionMode.reject(
+                    RejectionReason.KEYS_UNAVAILABLE,
+                    () -> "Timed out waiting for keys from " + publicKeysRequest.url(),
+                    e
+            );
+        } catch (ExecutionException e) {
+            metrics.rejection(RejectionReason.KEYS_UNAVAILABLE);
+            throw rejectionMode.reject(
+                    RejectionReason.KEYS_UNAVAILABLE,
+                    () -> "Unable to fetch keys from " + publicKeysRequest.url(),
+                    e.getCause()
+            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.rejection(RejectionReason.KEYS_UNAVAILABLE);
+            throw rejectionMode.reject(
+                    RejectionReason.KEYS_UNAVAILABLE,
+                    () -> "Interrupted while waiting for keys from " + publicKeysRequest.url(),
+                    e
+            );
+        } finally {
+            metrics.keyFetchWait(System.nanoTime() - startedAt);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package space.crickets.authorize.signing;
+
+import space.crickets.authorize.exceptions.RejectionMode;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.Map;
+
+/**
+ * How AuthorizeSigningKeyResolver talks to the Oauth2 server's public-keys endpoint.
+ * See AppConfig for the properties these come from.
+ */
+public record JwksSettings(
+        /*
+         * E.g. https://dev-850216.okta.com/oauth2/default/v1/keys
+         */
+        String jwksUrl,
+
+        /*
+         * How often to re-fetch keys in the background, so that rotated-in keys are usually already cached by
+         * the time a JWT signed with them shows up. A "Cache-Control: max-age" on the JWKS response takes
+         * precedence. Zero or negative turns background refreshing off.
+         */
+        Duration refreshInterval,
+
+        /*
+         * Upper bound on a single call to the JWKS endpoint, from connecting to reading the whole body.
+         */
+        Duration fetchTimeout,
+
+        /*
+         * How long a request thread will wait on an in-flight fetch of keys before giving up with a 403.
+         * Keep this short: a hung JWKS endpoint shouldn't be able to tie up every request thread.
+         */
+        Duration fetchWaitTimeout,
+
+        /*
+         * Key IDs we recently turned away are remembered for this long, so that repeats of the same bogus key ID
+         * are rejected without any further work. Only key IDs that weren't in a fresh fetch of keys are remembered, and
+         * only until the next keys are published (fetched, or read from a shared snapshot).
+         */
+        Duration rejectedKeyIdTtl,
+
+        /*
+         * At most this many rejected key IDs are remembered. Zero turns the rejected key ID cache off.
+         */
+        long rejectedKeyIdCacheSize,
+
+        /*
+         * Keys that drop out of the JWKS response are still honored for this long afterwards, so that JWTs signed
+         * just before a key was retired don't all fail at once. Only the generation before the latest is kept.
+         * Zero (the default) forgets retired keys straight away, which is the safe choice if keys are only ever
+         * dropped because they were compromised. Either way, the VerifiedTokenCache forgets JWTs signed with a key
+         * as soon as it drops out, though with a grace period, ones re-verified during it can be served from the
+         * cache for up to its max age afterwards.
+         */
+        Duration retiredKeyGracePeriod,
+
+        /*
+         * Optional. Where to keep a copy of the last good JWKS response. If it's there at startup we use it
+         * straight away and fetch fresh keys in the background, rather than holding up startup on the JWKS
+         * endpoint (or failing to start when it's down). Null turns snapshots off.
+         */
+        Path snapshotFile,
+
+        /*
+         * Only matters with a snapshotFile. If true, every JVM on the host that's configured with the same
+         * snapshotFile shares it: a lock file makes sure only one of them calls the JWKS endpoint at a time, and
+         * the rest pick up the keys it fetched from the snapshot. See SharedSnapshot.
+         */
+        boolean shareSnapshot,
+
+        /*
+         * Optional. For services that accept JWTs from more than one Oauth2 server: the JWKS url for each "iss".
+         * Each gets its own keys, refreshed on their own schedule, with the rest of these settings. JWTs from any
+         * other issuer (or with no "iss") are checked against the keys from jwksUrl.
+         */
+        Map<String, String> issuerJwksUrls,
+
+        /*
+         * How to throw when a JWT's key can't be had (unknown key ID, JWKS endpoint down). FAST matters most here:
+         * every made-up key ID an attacker sends ends up rejected by a key lookup. See RejectionMode.
+         */
+        RejectionMode rejectionMode
+) {
+    public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(15);
+    public static final Duration DEFAULT_FETCH_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_FETCH_WAIT_TIMEOUT = Duration.ofSeconds(1);
+    public static final Duration DEFAULT_REJECTED_KEY_ID_TTL = Duration.ofMinutes(1);
+    public static final long DEFAULT_REJECTED_KEY_ID_CACHE_SIZE = 10_000L;
+
+    public JwksSettings(String jwksUrl) {
+        this(
+                jwksUrl,
+                DEFAULT_REFRESH_INTERVAL,
+                DEFAULT_FETCH_TIMEOUT,
+                DEFAULT_FETCH_WAIT_TIMEOUT,
+                DEFAULT_REJECTED_KEY_ID_TTL,
+                DEFAULT_REJECTED_KEY_ID_CACHE_SIZE,
+                Duration.ZERO,
+                null,
+                false,
+                Map.of(),
+                RejectionMode.DETAILED
+        );
+    }
+
+    /**
+     * The settings for one issuer's JWKS endpoint. Each issuer keeps its snapshot in a file of its own, next to
+     * the main one.
+     */
+    public JwksSettings forIssuer(String issuer) {
+        String issuerJwksUrl = issuerJwksUrls.get(issuer);
+        Path issuerSnapshotFile = snapshotFile != null
+                ? snapshotFile.resolveSibling(snapshotFile.getFileName() + "." + sha256(issuer))
+                : null;
+        return new JwksSettings(issuerJwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, issuerSnapshotFile, shareSnapshot, Map.of(), rejectionMode);
+    }
+
+    /**
+     * Safe in a file name, and unlike hashCode(), no two issuers end up sharing a snapshot file.
+     */
+    private static String sha256(String issuer) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(issuer.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
+        }
+    }
+
+    public JwksSettings withIssuerJwksUrls(Map<String, String> issuerJwksUrls) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withRefreshInterval(Duration refreshInterval) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withSnapshotFile(Path snapshotFile) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withSharedSnapshot(boolean shareSnapshot) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withFetchTimeout(Duration fetchTimeout) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withFetchWaitTimeout(Duration fetchWaitTimeout) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withRetiredKeyGracePeriod(Duration retiredKeyGracePeriod) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+
+    public JwksSettings withRejectionMode(RejectionMode rejectionMode) {
+        return new JwksSettings(jwksUrl, refreshInterval, fetchTimeout, fetchWaitTimeout, rejectedKeyIdTtl, rejectedKeyIdCacheSize, retiredKeyGracePeriod, snapshotFile, shareSnapshot, issuerJwksUrls, rejectionMode);
+    }
+}
@@ -0,0 +1,73 @@
+package space.crickets.authorize.signing;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Everything a JwksKeySource knows about its keys at one moment. Never changes once built: a refresh builds the next
+ * one and publishes it with a single volatile write, so a reader sees all of one generation or all of the next, and
+ * never an empty or half-built map.
+ */
+record KeySnapshot(
+        Map<String, SigningKeyVerifier> keys,
+
+        /*
+         * Keys the previous generation had and this one doesn't. Still honored until retiredUntil.
+         */
+        Map<String, SigningKeyVerifier> retiredKeys,
+        Instant retiredUntil,
+
+        /*
+         * When these keys were fetched, for RotationClock. EPOCH if they came from a snapshot file at startup,
+         * since they may well be stale.
+         */
+        Instant rotatedAt
+) {
+    static final KeySnapshot EMPTY = new KeySnapshot(Map.of(), Map.of(), Instant.EPOCH, Instant.EPOCH);
+
+    KeySnapshot {
+        keys = Map.copyOf(keys);
+        retiredKeys = Map.copyOf(retiredKeys);
+    }
+
+    /**
+     * Null if there's no such key, or it was retired more than the grace period ago.
+     */
+    SigningKeyVerifier get(String keyId) {
+        if (keyId == null) {
+            return null; // Map.copyOf() maps throw on null keys.
+        }
+
+        SigningKeyVerifier verifier = keys.get(keyId);
+
+        if (verifier == null && !retiredKeys.isEmpty() && Instant.now().isBefore(retiredUntil)) {
+            verifier = retiredKeys.get(keyId);
+        }
+
+        return verifier;
+    }
+
+    /**
+     * The generation after this one. Whatever this one has that `freshKeys` doesn't is retired, and kept around for
+     * `gracePeriod` (if positive). Keys retired by an earlier generation are dropped once more keys are retired.
+     */
+    KeySnapshot next(Map<String, SigningKeyVerifier> freshKeys, Instant rotatedAt, Duration gracePeriod) {
+        if (gracePeriod.isZero() || gracePeriod.isNegative()) {
+            return new KeySnapshot(freshKeys, Map.of(), Instant.EPOCH, rotatedAt);
+        }
+
+        Map<String, SigningKeyVerifier> retired = new HashMap<>(keys);
+        retired.keySet().removeAll(freshKeys.keySet());
+
+        if (retired.isEmpty()) {
+            // Nothing new retired (the usual refresh), so keys retired last time keep what's left of their grace.
+            Map<String, SigningKeyVerifier> stillRetired = new HashMap<>(retiredKeys);
+            stillRetired.keySet().removeAll(freshKeys.keySet());
+            return new KeySnapshot(freshKeys, stillRetired, retiredUntil, rotatedAt);
+        }
+
+        return new KeySnapshot(freshKeys, retired, Instant.now().plus(gracePeriod), rotatedAt);
+    }
+}
@@ -3,33 +3,105 @@ package space.crickets.authorize.signing;
 import space.crickets.authorize.exceptions.ForbiddenException;
 
 import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.KeyFactory;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.spec.InvalidKeySpecException;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPublicKeySpec;
+import java.security.spec.KeySpec;
+import java.security.spec.NamedParameterSpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.util.Base64;
+import java.util.Map;
 
 /**
  * This class generates a `java.security.PublicKey` from the response of an Oauth server's public-keys endpoint.
  * Googled around to come up with this.
+ * <p>
+ * Supports RSA keys, EC keys on the NIST curves (ES256, ES384, ES512) and OKP keys (EdDSA with Ed25519 or Ed448).
+ * EC and EdDSA signatures are a lot cheaper to verify than RSA ones at the same level of security.
  */
 public class PublicKeyBuilder {
-    public PublicKey buildPublicKey(JsonWebKey jsonWebKey) {
-        if (jsonWebKey.kty().equalsIgnoreCase("RSA") && jsonWebKey.use().equalsIgnoreCase("sig")) {
-
-            RSAPublicKeySpec rsaPublicKeySpec = new RSAPublicKeySpec(
-                    new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.n())),
-                    new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.e()))
-            );
+    // JWK "crv" names to the names java.security knows them by.
+    private static final Map<String, String> EC_CURVES = Map.of(
+            "P-256", "secp256r1",
+            "P-384", "secp384r1",
+            "P-521", "secp521r1"
+    );
 
+    public PublicKey buildPublicKey(JsonWebKey jsonWebKey) {
+        // "use" is optional. If it's there, it has to say the key is for signatures.
+        if (jsonWebKey.kty() != null && (jsonWebKey.use() == null || jsonWebKey.use().equalsIgnoreCase("sig"))) {
             try {
-                return KeyFactory.getInstance("RSA").generatePublic(rsaPublicKeySpec);
-            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                switch (jsonWebKey.kty().toUpperCase()) {
+                    case "RSA":
+                        return KeyFactory.getInstance("RSA").generatePublic(rsaPublicKeySpec(jsonWebKey));
+                    case "EC":
+                        return KeyFactory.getInstance("EC").generatePublic(ecPublicKeySpec(jsonWebKey));
+                    case "OKP":
+                        return KeyFactory.getInstance("EdDSA").generatePublic(edEcPublicKeySpec(jsonWebKey));
+                    default:
+                        break;
+                }
+            } catch (GeneralSecurityException | IllegalArgumentException | NullPointerException e) {
                 throw new ForbiddenException("Failed to generate public key for key ID: " + jsonWebKey.kid());
             }
         }
 
         throw new ForbiddenException("Unable to generate public key for key: " + jsonWebKey);
     }
+
+    private static KeySpec rsaPublicKeySpec(JsonWebKey jsonWebKey) {
+        return new RSAPublicKeySpec(
+                new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.n())),
+                new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.e()))
+        );
+    }
+
+    private static KeySpec ecPublicKeySpec(JsonWebKey jsonWebKey) throws GeneralSecurityException {
+        String curve = EC_CURVES.get(jsonWebKey.crv());
+
+        if (curve == null) {
+            throw new GeneralSecurityException("Unsupported EC curve: " + jsonWebKey.crv());
+        }
+
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(new ECGenParameterSpec(curve));
+
+        return new ECPublicKeySpec(
+                new ECPoint(
+                        new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.x())),
+                        new BigInteger(1, Base64.getUrlDecoder().decode(jsonWebKey.y()))
+                ),
+                parameters.getParameterSpec(ECParameterSpec.class)
+        );
+    }
+
+    /**
+     * RFC 8037's "x" is the raw public key: the curve point's y coordinate, little-endian, with the top bit of
+     * the last byte saying whether x is odd. EdECPoint wants those two things separately.
+     */
+    private static KeySpec edEcPublicKeySpec(JsonWebKey jsonWebKey) throws GeneralSecurityException {
+        NamedParameterSpec curve = switch (String.valueOf(jsonWebKey.crv())) {
+            case "Ed25519" -> NamedParameterSpec.ED25519;
+            case "Ed448" -> NamedParameterSpec.ED448;
+            default -> throw new GeneralSecurityException("Unsupported OKP curve: " + jsonWebKey.crv());
+        };
+
+        byte[] littleEndian = Base64.getUrlDecoder().decode(jsonWebKey.x());
+        boolean xOdd = (littleEndian[littleEndian.length - 1] & 0x80) != 0;
+
+        byte[] bigEndian = new byte[littleEndian.length];
+        for (int i = 0; i < littleEndian.length; i++) {
+            bigEndian[i] = littleEndian[littleEndian.length - 1 - i];
+        }
+        bigEndian[0] &= 0x7f;
+
+        return new EdECPublicKeySpec(curve, new EdECPoint(xOdd, new BigInteger(1, bigEndian)));
+    }
 }
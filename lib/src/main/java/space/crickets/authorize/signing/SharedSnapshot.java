@@ -0,0 +1,206 @@
+package space.crickets.authorize.signing;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * A JWKS snapshot file shared by every JVM on the host, so that between them they only call the JWKS endpoint once.
+ * <p>
+ * Whoever needs fresh keys takes an exclusive lock on "&lt;snapshot&gt;.lock" first. If the snapshot changed while
+ * they waited for it, somebody else just did the fetch, and they use that. Otherwise they fetch and write the
+ * snapshot, still holding the lock. Everyone else notices the new snapshot through a WatchService and picks it up,
+ * without waiting to need it. Nobody waits for the lock longer than a fetch could take; past that, they fetch
+ * without it.
+ */
+final class SharedSnapshot {
+    private static final Log log = LogFactory.getLog(SharedSnapshot.class);
+
+    // A FileLock is held by the whole JVM, and trying to take one twice throws rather than waits. So within a JVM,
+    // whoever wants a given lock file queues up here first.
+    private static final Map<Path, ReentrantLock> locksInThisJvm = new ConcurrentHashMap<>();
+
+    // FileChannel.tryLock() doesn't wait, so we poll. Fetches take far longer than this.
+    private static final Duration LOCK_RETRY_INTERVAL = Duration.ofMillis(50);
+
+    private final Path snapshotFile;
+    private final Path lockFile;
+    private volatile FileTime seenModifiedTime; // When the snapshot we last read or wrote was written.
+    private volatile WatchService watchService;
+
+    SharedSnapshot(Path snapshotFile) {
+        this.snapshotFile = snapshotFile.toAbsolutePath().normalize();
+        this.lockFile = this.snapshotFile.resolveSibling(this.snapshotFile.getFileName() + ".lock");
+    }
+
+    /**
+     * Runs `action` while no other JVM (or other resolver in this one) is doing the same for this snapshot.
+     * Returns false, without running it, if the lock couldn't be had within `timeout`: e.g. a hung or crashed
+     * holder, or a file system that doesn't do locks. The caller should then go ahead without the snapshot.
+     */
+    boolean whileLocked(Runnable action, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        ReentrantLock lockInThisJvm = locksInThisJvm.computeIfAbsent(lockFile, path -> new ReentrantLock());
+
+        try {
+            if (!lockInThisJvm.tryLock(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock fileLock = tryLock(channel, deadline)) {
+            if (fileLock == null) {
+                return false;
+            }
+
+            action.run();
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to lock " + lockFile, e);
+            return false;
+        } finally {
+            lockInThisJvm.unlock();
+        }
+    }
+
+    /**
+     * Null if another JVM still has it at `deadline` (a System.nanoTime()).
+     */
+    private static FileLock tryLock(FileChannel channel, long deadline) throws IOException {
+        while (true) {
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                fileLock = null; // Held in this JVM by something other than us, e.g. under another path.
+            }
+
+            long remaining = deadline - System.nanoTime();
+
+            if (fileLock != null || remaining <= 0) {
+                return fileLock;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.min(remaining, LOCK_RETRY_INTERVAL.toNanos()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+
+    /**
+     * True if somebody else has written the snapshot since we last read or wrote it, or since `since`.
+     */
+    boolean changedSince(Instant since) {
+        FileTime modifiedTime = modifiedTime();
+        return modifiedTime != null
+                && (!modifiedTime.equals(seenModifiedTime) || !modifiedTime.toInstant().isBefore(since));
+    }
+
+    boolean changedSinceSeen() {
+        FileTime modifiedTime = modifiedTime();
+        return modifiedTime != null && !modifiedTime.equals(seenModifiedTime);
+    }
+
+    /**
+     * Call after reading or writing the snapshot.
+     */
+    void markSeen() {
+        seenModifiedTime = modifiedTime();
+    }
+
+    /**
+     * Calls `onChange` (on a daemon thread of its own) whenever the snapshot file is replaced.
+     */
+    void watch(Runnable onChange) {
+        try {
+            Path directory = snapshotFile.getParent();
+            Files.createDirectories(directory);
+            watchService = directory.getFileSystem().newWatchService();
+            directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            log.warn("Unable to watch " + snapshotFile + "; keys will only be picked up from it when fetching", e);
+            return;
+        }
+
+        WatchService watching = watchService;
+        Thread watcher = new Thread(() -> watchForChanges(watching, onChange), "authorize-jwks-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    void stopWatching() {
+        WatchService watching = watchService;
+
+        if (watching != null) {
+            try {
+                watching.close(); // Which ends the watcher thread.
+            } catch (IOException e) {
+                log.warn("Unable to stop watching " + snapshotFile, e);
+            }
+        }
+    }
+
+    private void watchForChanges(WatchService watching, Runnable onChange) {
+        try {
+            while (true) {
+                WatchKey key = watching.take();
+                boolean snapshotChanged = false;
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // Snapshots are written to a temp file and moved into place, so ignore everything but the move.
+                    if (event.context() instanceof Path path && path.equals(snapshotFile.getFileName())) {
+                        snapshotChanged = true;
+                    }
+                }
+
+                if (snapshotChanged) {
+                    onChange.run();
+                }
+
+                if (!key.reset()) {
+                    return; // Directory's gone.
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped.
+        }
+    }
+
+    private FileTime modifiedTime() {
+        try {
+            return Files.getLastModifiedTime(snapshotFile);
+        } catch (IOException e) {
+            return null; // Not there (yet).
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package space.crickets.authorize.signing;
+
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A public key from the JWKS endpoint, plus ready-to-go java.security.Signature objects for checking JWS
+ * signatures made with it.
+ * <p>
+ * Signature.getInstance() goes looking through the security providers every time, and initVerify() re-parses
+ * the key. Neither is free at high request rates, and neither needs doing more than once per key. So each
+ * verifier keeps a small pool of Signature objects that have already been through both. A Signature goes back
+ * to its just-initialized state after verify(), so it can be reused as is.
+ * <p>
+ * The pools start out empty and fill up as signatures are checked, so a key that's only ever handed to jjwt
+ * (authorize.fast-path-parser off) costs nothing beyond the key itself.
+ * <p>
+ * Pooling rather than a ThreadLocal, so that this behaves the same on virtual threads, where a ThreadLocal
+ * would mean one Signature per request.
+ */
+public final class SigningKeyVerifier {
+    // Never keep more than this many idle Signatures per algorithm, however bursty things get.
+    private static final int MAX_IDLE_SIGNATURES = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final String keyId;
+    private final PublicKey publicKey;
+    private final Map<String, Pool> pools; // By JWS "alg". Read-only after construction.
+
+    private SigningKeyVerifier(String keyId, PublicKey publicKey, Map<String, Pool> pools) {
+        this.keyId = keyId;
+        this.publicKey = publicKey;
+        this.pools = pools;
+    }
+
+    /**
+     * If the JWK says which "alg" it's for, only that algorithm is accepted. Otherwise, any algorithm that
+     * suits the type of key.
+     */
+    static SigningKeyVerifier of(JsonWebKey jsonWebKey, PublicKey publicKey) {
+        List<String> algs = jsonWebKey.alg() != null
+                ? List.of(jsonWebKey.alg())
+                : algsFor(publicKey);
+
+        Map<String, Pool> pools = new HashMap<>();
+        for (String alg : algs) {
+            pools.put(alg, new Pool(alg, publicKey)); // Empty until the first verify().
+        }
+
+        return new SigningKeyVerifier(jsonWebKey.kid(), publicKey, Map.copyOf(pools));
+    }
+
+    public String keyId() {
+        return keyId;
+    }
+
+    public PublicKey publicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Checks a JWS signature. `alg` is the JWS header's "alg"; a JWT that claims an algorithm this key isn't for
+     * fails. `signingInput` is the ASCII bytes of "header.payload", and `signature` is the decoded third part.
+     */
+    public boolean verify(String alg, byte[] signingInput, int offset, int length, byte[] signature) {
+        return verify(alg, signingInput, offset, length, signature, 0, signature.length);
+    }
+
+    /**
+     * Same, with the signature somewhere in a larger buffer. Saves copying it out.
+     */
+    public boolean verify(
+            String alg,
+            byte[] signingInput,
+            int offset,
+            int length,
+            byte[] signature,
+            int signatureOffset,
+            int signatureLength
+    ) {
+        Pool pool = pools.get(alg);
+        Signature verifier = pool != null ? pool.borrow() : null;
+
+        if (verifier == null) {
+            return false;
+        }
+
+        try {
+            verifier.update(signingInput, offset, length);
+            boolean verified = verifier.verify(signature, signatureOffset, signatureLength);
+            pool.giveBack(verifier);
+            return verified;
+        } catch (GeneralSecurityException e) {
+            // A Signature that threw may be in any state, so don't give it back. E.g. a malformed ECDSA signature.
+            return false;
+        }
+    }
+
+    private static List<String> algsFor(PublicKey publicKey) {
+        return switch (publicKey.getAlgorithm()) {
+            case "RSA" -> List.of("RS256", "RS384", "RS512", "PS256", "PS384", "PS512");
+            case "EC" -> List.of("ES256", "ES384", "ES512");
+            case "EdDSA", "Ed25519", "Ed448" -> List.of("EdDSA");
+            default -> List.of();
+        };
+    }
+
+    /**
+     * Idle, initialized Signature objects for one key and one algorithm.
+     */
+    private static final class Pool {
+        private final String alg;
+        private final PublicKey publicKey;
+        private final Queue<Signature> idle = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+        private volatile boolean unsupported; // This JVM can't do `alg` with this key. Found out on first use.
+
+        private Pool(String alg, PublicKey publicKey) {
+            this.alg = alg;
+            this.publicKey = publicKey;
+        }
+
+        /**
+         * Returns null if this JVM can't do `alg` with this key.
+         */
+        Signature borrow() {
+            Signature signature = idle.poll();
+
+            if (signature != null) {
+                idleCount.decrementAndGet();
+                return signature;
+            }
+
+            if (unsupported) {
+                return null;
+            }
+
+            try {
+                return newSignature(); // First use, or the pool ran dry under a burst.
+            } catch (GeneralSecurityException | IllegalArgumentException e) {
+                unsupported = true;
+                return null;
+            }
+        }
+
+        void giveBack(Signature signature) {
+            if (idleCount.incrementAndGet() <= MAX_IDLE_SIGNATURES) {
+                idle.offer(signature);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
+
+        private Signature newSignature() throws GeneralSecurityException {
+            Signature signature = switch (alg) {
+                case "RS256" -> Signature.getInstance("SHA256withRSA");
+                case "RS384" -> Signature.getInstance("SHA384withRSA");
+                case "RS512" -> Signature.getInstance("SHA512withRSA");
+                case "PS256" -> pss("SHA-256", MGF1ParameterSpec.SHA256, 32);
+                case "PS384" -> pss("SHA-384", MGF1ParameterSpec.SHA384, 48);
+                case "PS512" -> pss("SHA-512", MGF1ParameterSpec.SHA512, 64);
+                // JWS ECDSA signatures are R and S back to back (IEEE P1363), not DER.
+                case "ES256" -> Signature.getInstance("SHA256withECDSAinP1363Format");
+                case "ES384" -> Signature.getInstance("SHA384withECDSAinP1363Format");
+                case "ES512" -> Signature.getInstance("SHA512withECDSAinP1363Format");
+                case "EdDSA" -> Signature.getInstance("EdDSA");
+                default -> throw new GeneralSecurityException("Unsupported JWS algorithm: " + alg);
+            };
+
+            signature.initVerify(publicKey);
+            return signature;
+        }
+
+        private static Signature pss(String digest, MGF1ParameterSpec mgf1, int saltLength) throws GeneralSecurityException {
+            Signature signature = Signature.getInstance("RSASSA-PSS");
+            signature.setParameter(new PSSParameterSpec(digest, "MGF1", mgf1, saltLength, 1));
+            return signature;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package space.crickets.authorize.signing;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Runs the signature-checking path on throwaway, self-signed JWTs, so that the first real requests after startup
+ * don't pay for class loading, crypto provider lookups and a cold JIT.
+ * <p>
+ * None of this goes near the JWKS endpoint or the keys from it: the key pair is made up on the spot, and thrown away.
+ */
+public final class SigningWarmUp {
+    private static final String KEY_ID = "authorize-warm-up";
+
+    private SigningWarmUp() {
+    }
+
+    public static void run(int rounds) {
+        KeyPair keyPair = rsaKeyPair();
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) keyPair.getPublic();
+
+        // Same steps as a JWKS response goes through.
+        JsonWebKey jsonWebKey = new JsonWebKey(KEY_ID, base64Url(rsaPublicKey.getModulus()));
+        SigningKeyVerifier verifier = SigningKeyVerifier.of(jsonWebKey, new PublicKeyBuilder().buildPublicKey(jsonWebKey));
+
+        String token = Jwts.builder()
+                .setHeaderParam("kid", KEY_ID)
+                .setSubject("warm-up")
+                .claim("scp", List.of("warm-up"))
+                .setExpiration(Date.from(Instant.now().plusSeconds(60)))
+                .signWith(keyPair.getPrivate(), SignatureAlgorithm.RS256)
+                .compact();
+        JwtParser jwtParser = Jwts.parserBuilder()
+                .setSigningKey(verifier.publicKey())
+                .build();
+
+        int signatureAt = token.lastIndexOf('.');
+        byte[] signingInput = token.substring(0, signatureAt).getBytes(StandardCharsets.US_ASCII);
+        byte[] signature = Base64.getUrlDecoder().decode(token.substring(signatureAt + 1));
+
+        for (int i = 0; i < rounds; i++) {
+            jwtParser.parseClaimsJws(token); // jjwt, Jackson and the RSA Signature.
+            CompactJws.keyId(token);
+            verifier.verify("RS256", signingInput, 0, signingInput.length, signature); // What FastJwtParser does.
+        }
+    }
+
+    private static KeyPair rsaKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to make a key pair to warm up with", e);
+        }
+    }
+
+    /**
+     * JWKS-style: unsigned, big-endian, no padding.
+     */
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+
+        if (bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length); // Drop the sign byte.
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
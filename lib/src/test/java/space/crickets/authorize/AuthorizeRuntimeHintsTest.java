@@ -0,0 +1,161 @@
+package space.crickets.authorize;
+
+import org.junit.Test;
+import org.springframework.aot.generate.ClassNameGenerator;
+import org.springframework.aot.generate.DefaultGenerationContext;
+import org.springframework.aot.generate.GenerationContext;
+import org.springframework.aot.generate.InMemoryGeneratedFiles;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.beans.factory.aot.BeanRegistrationAotContribution;
+import org.springframework.beans.factory.aot.BeanRegistrationAotProcessor;
+import org.springframework.beans.factory.aot.BeanRegistrationCode;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RegisteredBean;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.aot.ApplicationContextAotGenerator;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.javapoet.ClassName;
+import space.crickets.authorize.aop.AuthorizeAdvice;
+import space.crickets.authorize.aop.AuthorizeBeanRegistrationAotProcessor;
+import space.crickets.authorize.signing.JsonWebKey;
+import space.crickets.authorize.signing.JsonWebKeys;
+import space.crickets.authorize.testhelpers.HelloController;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks the hints a native image build would get, without building one.
+ */
+public class AuthorizeRuntimeHintsTest {
+    private final RuntimeHints hints = new RuntimeHints();
+
+    @Test
+    public void whenLibraryHintsAreRegistered() throws Exception {
+        new AuthorizeRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        // Gson
+        assertTrue(RuntimeHintsPredicates.reflection().onType(JsonWebKeys.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onType(JsonWebKey.class).test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onConstructor(
+                JsonWebKey.class.getConstructor(
+                        String.class, String.class, String.class, String.class, String.class,
+                        String.class, String.class, String.class, String.class, String.class
+                )
+        ).test(hints));
+
+        // Annotations and the aspect
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(MatchClaim.class, "ignoreCase").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(Authorize.class, "scopes").test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(AuthorizeAdvice.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_METHODS)
+                .test(hints));
+
+        // jjwt
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("io.jsonwebtoken.impl.DefaultJwtParserBuilder"))
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)
+                .test(hints));
+        assertTrue(RuntimeHintsPredicates.resource()
+                .forResource("META-INF/services/io.jsonwebtoken.io.Deserializer")
+                .test(hints));
+        assertTrue(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of("io.jsonwebtoken.jackson.io.JacksonDeserializer"))
+                .withMemberCategory(MemberCategory.INVOKE_PUBLIC_CONSTRUCTORS)
+                .test(hints));
+
+        // Annotation processor output
+        assertTrue(RuntimeHintsPredicates.resource()
+                .forResource("META-INF/services/space.crickets.authorize.aop.AuthorizationDescriptor")
+                .test(hints));
+    }
+
+    @Test
+    public void whenJjwtServicesAreOnTheClasspath() throws Exception {
+        // So a jjwt upgrade that moves or renames them gets noticed.
+        for (Map.Entry<String, List<String>> service : AuthorizeRuntimeHints.JJWT_SERVICES.entrySet()) {
+            assertNotNull(service.getKey(), getClass().getClassLoader().getResource("META-INF/services/" + service.getKey()));
+            for (String implementation : service.getValue()) {
+                Class.forName(implementation).getConstructor();
+            }
+        }
+    }
+
+    @Test
+    public void whenBeanHasAuthorizeMethods() throws Exception {
+        assertNull(contributionFor(String.class)); // Nothing to do.
+
+        BeanRegistrationAotContribution contribution = contributionFor(HelloController.class);
+        GenerationContext generationContext = mock(GenerationContext.class);
+        doReturn(hints).when(generationContext).getRuntimeHints();
+        contribution.applyTo(generationContext, mock(BeanRegistrationCode.class));
+
+        Method greet = List.of(HelloController.class.getMethods()).stream()
+                .filter(method -> method.isAnnotationPresent(Authorize.class))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(greet).introspect().test(hints));
+        assertFalse(RuntimeHintsPredicates.reflection().onMethod(Object.class.getMethod("toString")).test(hints));
+    }
+
+    @Test
+    public void whenSpringAotLooksForHints() {
+        SpringFactoriesLoader factories = SpringFactoriesLoader.forResourceLocation("META-INF/spring/aot.factories");
+
+        assertTrue(factories.load(RuntimeHintsRegistrar.class).stream()
+                .anyMatch(registrar -> registrar instanceof AuthorizeRuntimeHints));
+        assertTrue(factories.load(BeanRegistrationAotProcessor.class).stream()
+                .anyMatch(processor -> processor instanceof AuthorizeBeanRegistrationAotProcessor));
+    }
+
+    /**
+     * The first half of a native build: Spring processes the application context ahead of time. This is as far as
+     * we go without GraalVM. Building and running a native image isn't covered.
+     */
+    @Test
+    public void whenTheContextIsProcessedAheadOfTime() {
+        GenericApplicationContext context = new GenericApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Map.of("authorize.jwks.url", "https://example.com/v1/keys"))
+        );
+        context.registerBean(AppConfig.class);
+        context.registerBean(HelloController.class);
+
+        DefaultGenerationContext generationContext = new DefaultGenerationContext(
+                new ClassNameGenerator(ClassName.get(getClass().getPackageName(), "AotSmokeTest")),
+                new InMemoryGeneratedFiles()
+        );
+        new ApplicationContextAotGenerator().processAheadOfTime(context, generationContext); // Never calls the url
+        generationContext.writeGeneratedContent();
+        RuntimeHints aotHints = generationContext.getRuntimeHints();
+
+        // From aot.factories, same as a native build would find them.
+        assertTrue(RuntimeHintsPredicates.reflection().onType(JsonWebKeys.class).test(aotHints));
+        Method greet = List.of(HelloController.class.getMethods()).stream()
+                .filter(method -> method.isAnnotationPresent(Authorize.class))
+                .findFirst()
+                .orElseThrow();
+        assertTrue(RuntimeHintsPredicates.reflection().onMethod(greet).introspect().test(aotHints));
+    }
+
+    private static BeanRegistrationAotContribution contributionFor(Class<?> beanClass) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerBeanDefinition("bean", new RootBeanDefinition(beanClass));
+        return new AuthorizeBeanRegistrationAotProcessor().processAheadOfTime(RegisteredBean.of(beanFactory, "bean"));
+    }
+}
@@ -9,18 +9,28 @@ import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.MalformedJwtException;
 import io.jsonwebtoken.impl.DefaultClaims;
 import io.jsonwebtoken.security.SignatureException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import space.crickets.authorize.exceptions.ForbiddenException;
 import space.crickets.authorize.testhelpers.HelloController;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
@@ -44,19 +54,27 @@ public class AuthorizeTest {
          */
         @MockBean
         public JwtParser jwtParser;
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
     }
 
     @Autowired HelloController subject;
     @Autowired JwtParser jwtParser;
+    @Autowired MeterRegistry meterRegistry;
+    @Autowired ApplicationContext applicationContext;
 
-    private static final String AUTHORIZATION = "Bearer j.w.t";
+    private static final String JWT = "j.w.t";
+    private static final String AUTHORIZATION = "Bearer " + JWT; // What the @Jwt parameter gets: the whole header.
     private static final String ROGER = "Roger";
     private static final String HELLO_ROGER = "Hello Roger";
     private static final int AGE = 14;
 
     @Test public void whenNoScopeIsRequired() {
         // JWT contains some scope
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
 
         assertEquals(
                 HELLO_ROGER,
@@ -66,7 +84,7 @@ public class AuthorizeTest {
 
     @Test public void whenJwtContainsOneOfTheRequiredScopes() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
 
         assertEquals(
                 HELLO_ROGER,
@@ -75,7 +93,7 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtContainsMoreThanOneOfTheRequiredScopes() {
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(
+        when(jwtParser.parse(JWT)).thenReturn(
                 jwt(
                         ROGER,
                         AGE,
@@ -92,7 +110,19 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtLacksAnyOfTheRequiredScopes() {
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, AGE, "something-else"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "something-else"));
+        double rejectionsBefore = rejections("missing_scope");
+
+        assertThrows(
+                ForbiddenException.class,
+                () -> subject.getGreetingByName_checkScopes(ROGER, AUTHORIZATION)
+        );
+
+        assertEquals(rejectionsBefore + 1, rejections("missing_scope"), 0);
+    }
+
+    @Test public void whenJwtHasNoScopesAtAll() {
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE));
 
         assertThrows(
                 ForbiddenException.class,
@@ -101,16 +131,19 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtParsingFailsWithExpiredJwtException() {
-        when(jwtParser.parse(AUTHORIZATION)).thenThrow(ExpiredJwtException.class);
+        when(jwtParser.parse(JWT)).thenThrow(ExpiredJwtException.class);
+        double rejectionsBefore = rejections("expired");
 
         assertThrows(
                 ForbiddenException.class,
                 () -> subject.getGreetingByName_checkScopes(ROGER, AUTHORIZATION)
         );
+
+        assertEquals(rejectionsBefore + 1, rejections("expired"), 0);
     }
 
     @Test public void whenJwtParsingFailsWithMalformedJwtException() {
-        when(jwtParser.parse(AUTHORIZATION)).thenThrow(MalformedJwtException.class);
+        when(jwtParser.parse(JWT)).thenThrow(MalformedJwtException.class);
 
         assertThrows(
                 ForbiddenException.class,
@@ -119,7 +152,7 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtParsingFailsWithSignatureException() {
-        when(jwtParser.parse(AUTHORIZATION)).thenThrow(SignatureException.class);
+        when(jwtParser.parse(JWT)).thenThrow(SignatureException.class);
 
         assertThrows(
                 ForbiddenException.class,
@@ -128,7 +161,7 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtParsingFailsWithIllegalArgumentException() {
-        when(jwtParser.parse(AUTHORIZATION)).thenThrow(IllegalArgumentException.class);
+        when(jwtParser.parse(JWT)).thenThrow(IllegalArgumentException.class);
 
         assertThrows(
                 ForbiddenException.class,
@@ -137,7 +170,7 @@ public class AuthorizeTest {
     }
 
     @Test public void whenJwtParsingFailsWithAnUnexpectedException() {
-        when(jwtParser.parse(AUTHORIZATION)).thenThrow(IndexOutOfBoundsException.class);
+        when(jwtParser.parse(JWT)).thenThrow(IndexOutOfBoundsException.class);
 
         assertThrows(
                 IndexOutOfBoundsException.class, // not ForbiddenException
@@ -147,7 +180,7 @@ public class AuthorizeTest {
 
     @Test public void whenNameAndAgeMatchClaims() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
 
         assertEquals(
                 HELLO_ROGER,
@@ -157,7 +190,7 @@ public class AuthorizeTest {
 
     @Test public void whenNameDoesNotMatchClaim() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt("Rafael", AGE, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt("Rafael", AGE, "greeting.read"));
 
         assertThrows(
                 ForbiddenException.class,
@@ -167,7 +200,7 @@ public class AuthorizeTest {
 
     @Test public void whenAgeDoesNotMatchClaim() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, 17, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, 17, "greeting.read"));
 
         assertThrows(
                 ForbiddenException.class,
@@ -175,9 +208,23 @@ public class AuthorizeTest {
         );
     }
 
+    @Test public void whenClaimsMatchLoosely() {
+        // "age" is an Integer claim but a long argument, and "scp" is an array with the argument in it.
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "greeting.read", "greeting.write"));
+
+        assertEquals(
+                "Hello roger",
+                subject.getGreetingByName_matchLoosely("roger", AGE, "greeting.write", AUTHORIZATION)
+        );
+        assertThrows(
+                ForbiddenException.class,
+                () -> subject.getGreetingByName_matchLoosely("roger", AGE, "greeting.delete", AUTHORIZATION)
+        );
+    }
+
     @Test public void whenJwtClaimOverwritesMethodArgWithAge12() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, 12, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, 12, "greeting.read"));
 
         assertThrows(
                 ForbiddenException.class,
@@ -187,7 +234,7 @@ public class AuthorizeTest {
 
     @Test public void whenJwtClaimOverwritesMethodArgWithAge28() {
         // JWT contains one of the required scopes
-        when(jwtParser.parse(AUTHORIZATION)).thenReturn(jwt(ROGER, 28, "greeting.read"));
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, 28, "greeting.read"));
 
         assertEquals(
                 HELLO_ROGER,
@@ -195,6 +242,64 @@ public class AuthorizeTest {
         );
     }
 
+    @Test public void whenJwtClaimIsWidenedToBindIntoALong() {
+        // "age" comes out of the JWT as an Integer, but the parameter is a long.
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, 28, "greeting.read"));
+
+        assertEquals(
+                "Hello Roger, 28",
+                subject.getGreetingByName_bindLongAge(ROGER, 0, AUTHORIZATION)
+        );
+    }
+
+    @Test public void whenReactiveMethodIsAuthorized() {
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "greeting.read"));
+
+        assertEquals(HELLO_ROGER, subject.getGreetingByName_reactive(ROGER, AUTHORIZATION).block());
+        assertEquals(
+                List.of(HELLO_ROGER, "Hi Roger"),
+                subject.getGreetingsByName_reactive(ROGER, AUTHORIZATION).collectList().block()
+        );
+    }
+
+    @Test public void whenReactiveMethodIsNotAuthorized() {
+        when(jwtParser.parse(JWT)).thenReturn(jwt(ROGER, AGE, "something-else"));
+
+        // Nothing happens until someone subscribes...
+        Mono<String> greeting = subject.getGreetingByName_reactive(ROGER, AUTHORIZATION);
+        Flux<String> greetings = subject.getGreetingsByName_reactive(ROGER, AUTHORIZATION);
+        verify(jwtParser, never()).parse(anyString());
+
+        // ...and then the ForbiddenException comes out as an error signal.
+        assertThrows(ForbiddenException.class, greeting::block);
+        assertThrows(ForbiddenException.class, greetings::blockLast);
+    }
+
+    /**
+     * A JWT with no "kid" has nothing to prefetch, so checking it could still end up waiting on keys. That mustn't
+     * happen on the subscriber's (e.g. an event loop) thread.
+     */
+    @Test public void whenReactiveJwtHasNoKeyId() {
+        List<String> parsedOn = new CopyOnWriteArrayList<>();
+        when(jwtParser.parse(JWT)).thenAnswer(invocation -> {
+            parsedOn.add(Thread.currentThread().getName());
+            return jwt(ROGER, AGE, "greeting.read");
+        });
+
+        assertEquals(HELLO_ROGER, subject.getGreetingByName_reactive(ROGER, AUTHORIZATION).block());
+        assertEquals(1, parsedOn.size());
+        assertTrue(parsedOn.get(0), parsedOn.get(0).startsWith("boundedElastic"));
+    }
+
+    @Test public void whenApplicationLooksForAnExecutor() {
+        // The library's own pool mustn't be what the application gets injected.
+        assertEquals(0, applicationContext.getBeanNamesForType(Executor.class).length);
+    }
+
+    private double rejections(String reason) {
+        return meterRegistry.get("authorize.rejections").tag("reason", reason).counter().count();
+    }
+
     /**
      * Helper that returns a Claims object containing the provided scopes, full name and age claims.
      */
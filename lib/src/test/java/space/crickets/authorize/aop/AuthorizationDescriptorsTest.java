@@ -0,0 +1,70 @@
+package space.crickets.authorize.aop;
+
+import org.junit.Test;
+import space.crickets.authorize.Authorize;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The descriptor below stands in for one the annotation processor would generate, and is listed in
+ * src/test/resources/META-INF/services. It deliberately disagrees with the annotations, to show which one wins.
+ */
+public class AuthorizationDescriptorsTest {
+
+    public static class DescribedController {
+        @Authorize(scopes = "not.from.here")
+        public String greet(String authorization, String name) { // No @Jwt: reflection would throw.
+            return "Hello " + name;
+        }
+
+        @Authorize
+        public String greet(String authorization) {
+            return "Hello";
+        }
+    }
+
+    public static class DescribedController_AuthorizationDescriptor implements AuthorizationDescriptor {
+        @Override
+        public Class<?> declaringClass() {
+            return DescribedController.class;
+        }
+
+        @Override
+        public List<MethodDescriptor> methods() {
+            return List.of(new MethodDescriptor(
+                    "greet",
+                    new Class<?>[] {String.class, String.class},
+                    0,
+                    new String[] {"greeting.read"},
+                    new int[] {1},
+                    new String[] {"full-name"},
+                    new boolean[] {true},
+                    new int[] {},
+                    new String[] {}
+            ));
+        }
+    }
+
+    @Test
+    public void whenMethodIsDescribed() throws Exception {
+        Method greet = DescribedController.class.getMethod("greet", String.class, String.class);
+        AuthorizationPlan plan = AuthorizationPlan.compile(greet, greet.getAnnotation(Authorize.class), new ScopeRegistry());
+
+        assertEquals(0, plan.jwtIndex());
+        assertEquals(Set.of("greeting.read"), plan.requiredScopes());
+        assertEquals(1, plan.matchClaimCount());
+        assertEquals("full-name", plan.matchClaimName(0));
+        assertTrue(plan.matchesClaim(0, "Roger", "roger")); // ignoreCase came through
+    }
+
+    @Test
+    public void whenOverloadIsNotDescribed() throws Exception {
+        assertNull(AuthorizationDescriptors.find(DescribedController.class.getMethod("greet", String.class)));
+    }
+}
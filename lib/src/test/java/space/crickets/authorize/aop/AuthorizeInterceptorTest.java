@@ -0,0 +1,151 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwt;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwt;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.method.HandlerMethod;
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.BindClaim;
+import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Stands in for the DispatcherServlet: calls preHandle(), then the (proxied) handler method, on one thread.
+ */
+public class AuthorizeInterceptorTest {
+    private static final String ROGER = "Bearer roger";
+    private static final String NO_SCOPES = "Bearer no-scopes";
+    private static final String FORGED = "Bearer forged";
+
+    private JwtParser jwtParser;
+    private AuthorizeInterceptor subject;
+    private GreetingController controller;
+    private MockHttpServletRequest request;
+
+    public static class GreetingController {
+        @Authorize(scopes = "greeting.read")
+        public String greet(@RequestHeader("Authorization") @space.crickets.authorize.Jwt String authorization, @BindClaim("full-name") String name) {
+            return "Hello " + name;
+        }
+
+        @Authorize
+        public String greetWithCustomHeader(@RequestHeader(name = "X-Token") @space.crickets.authorize.Jwt String token) {
+            return "Hello";
+        }
+
+        public String greetAnyone() {
+            return "Hello";
+        }
+    }
+
+    @Before
+    public void setup() {
+        jwtParser = mock(JwtParser.class);
+        doReturn(jwt("Roger", "greeting.read")).when(jwtParser).parse("roger"); // Without the "Bearer "
+        doReturn(jwt("Roger")).when(jwtParser).parse("no-scopes");
+        when(jwtParser.parse("forged")).thenThrow(new SignatureException("Nice try"));
+
+        AuthorizeAdvice advice = new AuthorizeAdvice(jwtParser, VerifiedTokenCache.disabled(), AuthorizeMetrics.NOOP);
+        subject = new AuthorizeInterceptor(advice);
+
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new GreetingController());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(advice);
+        controller = proxyFactory.getProxy();
+
+        request = new MockHttpServletRequest();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void whenJwtChecksOut() throws Exception {
+        request.addHeader("Authorization", ROGER);
+
+        assertTrue(subject.preHandle(request, new MockHttpServletResponse(), handler("greet")));
+        assertEquals("Hello Roger", controller.greet(ROGER, null)); // @BindClaim still works
+
+        verify(jwtParser, times(1)).parse("roger"); // Not again by the advice.
+    }
+
+    @Test
+    public void whenJwtIsRejectedEarly() throws Exception {
+        request.addHeader("Authorization", FORGED);
+        assertThrows(ForbiddenException.class, () -> subject.preHandle(request, new MockHttpServletResponse(), handler("greet")));
+        assertNull(request.getAttribute(PreVerifiedJwt.ATTRIBUTE));
+
+        MockHttpServletRequest noScopesRequest = new MockHttpServletRequest();
+        noScopesRequest.addHeader("Authorization", NO_SCOPES);
+        assertThrows(ForbiddenException.class, () -> subject.preHandle(noScopesRequest, new MockHttpServletResponse(), handler("greet")));
+    }
+
+    @Test
+    public void whenHeaderIsNamed() throws Exception {
+        request.addHeader("Authorization", FORGED); // Not the header this method reads.
+        request.addHeader("X-Token", ROGER);
+
+        assertTrue(subject.preHandle(request, new MockHttpServletResponse(), handler("greetWithCustomHeader")));
+        assertNotNull(request.getAttribute(PreVerifiedJwt.ATTRIBUTE));
+    }
+
+    @Test
+    public void whenSchemeIsLowerCase() throws Exception {
+        request.addHeader("Authorization", "bearer roger");
+
+        assertTrue(subject.preHandle(request, new MockHttpServletResponse(), handler("greet")));
+        assertEquals("Hello Roger", controller.greet("bearer roger", null));
+
+        verify(jwtParser, times(1)).parse("roger");
+    }
+
+    @Test
+    public void whenMethodIsNotAuthorized() throws Exception {
+        request.addHeader("Authorization", FORGED);
+
+        assertTrue(subject.preHandle(request, new MockHttpServletResponse(), handler("greetAnyone")));
+        assertNull(request.getAttribute(PreVerifiedJwt.ATTRIBUTE));
+    }
+
+    private static HandlerMethod handler(String methodName) {
+        return List.of(GreetingController.class.getMethods()).stream()
+                .filter(method -> method.getName().equals(methodName))
+                .findFirst()
+                .map(method -> new HandlerMethod(new GreetingController(), method))
+                .orElseThrow();
+    }
+
+    private static Jwt<?, Claims> jwt(String fullName, String... scopes) {
+        Claims claims = new DefaultClaims(Map.of("full-name", fullName, "scp", List.of(scopes)));
+        return new DefaultJwt<>(null, claims);
+    }
+}
@@ -0,0 +1,69 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.JwtParser;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.BindClaim;
+import space.crickets.authorize.Jwt;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class AuthorizeMethodScannerTest {
+    private final AuthorizeAdvice advice =
+            new AuthorizeAdvice(mock(JwtParser.class), VerifiedTokenCache.disabled(), AuthorizeMetrics.NOOP);
+
+    public static class GoodController {
+        @Authorize(scopes = "greeting.read")
+        public String greet(@Jwt String authorization, @BindClaim("full-name") String name, @BindClaim("age") int age) {
+            return "Hello " + name; // A primitive can take an Integer claim.
+        }
+    }
+
+    public static class ControllerWithoutJwt {
+        @Authorize(scopes = "greeting.read")
+        public String greet(String authorization) {
+            return "Hello";
+        }
+    }
+
+    public static class ControllerWithUnbindableClaim {
+        @Authorize
+        public String greet(@Jwt String authorization, @BindClaim("age") char age) { // No claim comes out as a char.
+            return "Hello";
+        }
+    }
+
+    @Test
+    public void whenMethodsAreFine() {
+        try (AnnotationConfigApplicationContext context = contextWith(GoodController.class, 3)) {
+            assertTrue(context.isActive()); // Including a warm-up.
+        }
+    }
+
+    @Test
+    public void whenJwtParameterIsMissing() {
+        BeanInitializationException e = assertThrows(
+                BeanInitializationException.class,
+                () -> contextWith(ControllerWithoutJwt.class, 0)
+        );
+        assertTrue(e.getMessage().contains("ControllerWithoutJwt.greet"));
+    }
+
+    @Test
+    public void whenBindClaimTypeCantTakeAClaim() {
+        assertThrows(BeanInitializationException.class, () -> contextWith(ControllerWithUnbindableClaim.class, 0));
+    }
+
+    private AnnotationConfigApplicationContext contextWith(Class<?> controllerClass, int warmUpRounds) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.registerBean(controllerClass);
+        context.registerBean(AuthorizeMethodScanner.class, () -> new AuthorizeMethodScanner(context, advice, warmUpRounds));
+        context.refresh();
+        return context;
+    }
+}
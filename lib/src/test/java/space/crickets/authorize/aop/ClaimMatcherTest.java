@@ -0,0 +1,116 @@
+package space.crickets.authorize.aop;
+
+import org.junit.Test;
+import space.crickets.authorize.MatchClaim;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.math.BigInteger;
+import java.util.List;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+public class ClaimMatcherTest {
+
+    @SuppressWarnings("unused")
+    private void sample(
+            @MatchClaim("sub") String sub,
+            @MatchClaim(value = "email", ignoreCase = true) String email,
+            @MatchClaim("age") long age,
+            @MatchClaim("ratio") Double ratio,
+            @MatchClaim("admin") boolean admin,
+            @MatchClaim("anything") Object anything,
+            @MatchClaim("groups") List<String> groups
+    ) {
+    }
+
+    @SuppressWarnings("unused")
+    private void badSample(@MatchClaim(value = "age", ignoreCase = true) int age) {
+    }
+
+    @Test
+    public void whenNumbersComeBackAsDifferentTypes() {
+        ClaimMatcher age = matcherFor("sample", 2);
+
+        assertTrue(age.matches(42L, 42));
+        assertTrue(age.matches(42L, 42L));
+        assertTrue(age.matches(42L, BigInteger.valueOf(42)));
+        assertTrue(age.matches(42L, 42.0));
+        assertTrue(age.matches(42L, "42"));
+        assertFalse(age.matches(42L, 42.5));
+        assertFalse(age.matches(42L, "forty-two"));
+        assertFalse(age.matches(42L, "+42"));
+        assertFalse(age.matches(42L, "042"));
+        assertFalse(age.matches(42L, new BigInteger("18446744073709551658"))); // 2^64 + 42
+
+        ClaimMatcher ratio = matcherFor("sample", 3);
+        assertTrue(ratio.matches(0.5, 0.5));
+        assertTrue(ratio.matches(2.0, 2));
+        assertFalse(ratio.matches(0.5, 0.25));
+
+        ClaimMatcher anything = matcherFor("sample", 5);
+        assertTrue(anything.matches(42, 42L));
+        assertTrue(anything.matches(true, true));
+        assertFalse(anything.matches(42, "forty-two"));
+    }
+
+    @Test
+    public void whenComparingStrings() {
+        ClaimMatcher sub = matcherFor("sample", 0);
+        assertTrue(sub.matches("Roger", "Roger"));
+        assertFalse(sub.matches("Roger", "roger"));
+        assertTrue(sub.matches("42", 42)); // E.g. a path variable
+        assertFalse(sub.matches(null, "Roger"));
+        assertTrue(sub.matches(null, null));
+
+        ClaimMatcher email = matcherFor("sample", 1);
+        assertTrue(email.matches("Roger@Example.com", "roger@example.com"));
+        assertFalse(email.matches("Roger@Example.com", "rafael@example.com"));
+
+        ClaimMatcher admin = matcherFor("sample", 4);
+        assertTrue(admin.matches(true, true));
+        assertTrue(admin.matches(true, "true"));
+        assertFalse(admin.matches(true, false));
+    }
+
+    @Test
+    public void whenClaimIsAnArray() {
+        ClaimMatcher sub = matcherFor("sample", 0);
+        assertTrue(sub.matches("Roger", List.of("Rafael", "Roger")));
+        assertFalse(sub.matches("Roger", List.of("Rafael", "Novak")));
+        assertFalse(sub.matches("Roger", List.of()));
+
+        ClaimMatcher age = matcherFor("sample", 2);
+        assertTrue(age.matches(42L, List.of(17, 42)));
+    }
+
+    @Test
+    public void whenArgumentIsACollectionToo() {
+        // Whole value only, same as before matchers were compiled per type.
+        ClaimMatcher groups = matcherFor("sample", 6);
+        assertTrue(groups.matches(List.of("admins", "users"), List.of("admins", "users")));
+        assertFalse(groups.matches(List.of("admins"), List.of("admins", "users")));
+
+        ClaimMatcher anything = matcherFor("sample", 5);
+        assertTrue(anything.matches(List.of("admins", "users"), List.of("admins", "users")));
+        assertFalse(anything.matches(List.of("admins"), List.of(List.of("admins"), "users"))); // Not any element.
+        assertTrue(anything.matches("admins", List.of("admins", "users"))); // A single value still can be.
+    }
+
+    @Test
+    public void whenIgnoreCaseIsUsedOnANumber() {
+        assertThrows(RuntimeException.class, () -> matcherFor("badSample", 0));
+    }
+
+    private static ClaimMatcher matcherFor(String methodName, int parameterIndex) {
+        Method method = List.of(ClaimMatcherTest.class.getDeclaredMethods()).stream()
+                .filter(m -> m.getName().equals(methodName))
+                .findFirst()
+                .orElseThrow();
+        Parameter parameter = method.getParameters()[parameterIndex];
+        MatchClaim matchClaim = parameter.getAnnotation(MatchClaim.class);
+        return ClaimMatcher.compile(parameter.getType(), matchClaim.ignoreCase(), parameter.toString());
+    }
+}
@@ -0,0 +1,53 @@
+package space.crickets.authorize.aop;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScopeRegistryTest {
+    private final ScopeRegistry subject = new ScopeRegistry();
+
+    @Test
+    public void internIsStable() {
+        assertEquals(0, subject.intern("greeting.read"));
+        assertEquals(1, subject.intern("greeting.write"));
+        assertEquals(0, subject.intern("greeting.read"));
+        assertEquals(2, subject.size());
+    }
+
+    @Test
+    public void whenScopesOverlap() {
+        subject.intern("greeting.read");
+        subject.intern("greeting.write");
+        subject.intern("farewell.read");
+
+        long[] required = subject.bitsOf(List.of("greeting.read", "greeting.write"), subject.size());
+
+        assertTrue(ScopeRegistry.intersects(required, subject.bitsOf(List.of("something-else", "greeting.write"), subject.size())));
+        assertFalse(ScopeRegistry.intersects(required, subject.bitsOf(List.of("something-else", "farewell.read"), subject.size())));
+        assertFalse(ScopeRegistry.intersects(required, subject.bitsOf(null, subject.size())));
+    }
+
+    /**
+     * Plenty of APIs have more scopes than fit in one long.
+     */
+    @Test
+    public void whenThereAreLotsOfScopes() {
+        List<String> scopes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            scopes.add("scope." + i);
+            subject.intern("scope." + i);
+        }
+
+        long[] required = subject.bitsOf(List.of("scope.150"), subject.size());
+
+        assertEquals(4, required.length);
+        assertTrue(ScopeRegistry.intersects(required, subject.bitsOf(scopes, subject.size())));
+        assertFalse(ScopeRegistry.intersects(required, subject.bitsOf(scopes.subList(0, 150), subject.size())));
+    }
+}
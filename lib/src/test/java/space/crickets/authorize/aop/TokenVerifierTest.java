@@ -0,0 +1,237 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwt;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.PrematureJwtException;
+import io.jsonwebtoken.UnsupportedJwtException;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJws;
+import io.jsonwebtoken.impl.DefaultJwt;
+import io.jsonwebtoken.security.SignatureException;
+import org.junit.Before;
+import org.junit.Test;
+import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.exceptions.RejectionReason;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+import space.crickets.authorize.signing.AuthorizeSigningKeyResolver;
+import space.crickets.authorize.signing.FastJwtParser;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Signatures aren't really checked here (see FastJwtParserTest for that), so the JwtParser and the key resolver
+ * are mocks. What's being tested is the batching.
+ */
+public class TokenVerifierTest {
+    private static final String ALICE = token("key-1", "alice");
+    private static final String BOB = token("key-1", "bob");
+    private static final String CAROL = token("key-2", "carol");
+    private static final String MALLORY = token("key-2", "mallory");
+    private static final String DAVE = token("key-1", "dave"); // Not valid yet
+    private static final String TRUDY = token("key-2", "trudy"); // HS256, but key-2 is an RSA key
+
+    private JwtParser jwtParser;
+    private AuthorizeSigningKeyResolver keyResolver;
+    private TokenVerifier subject;
+
+    @Before
+    public void setup() {
+        jwtParser = mock(JwtParser.class);
+        keyResolver = mock(AuthorizeSigningKeyResolver.class);
+
+        for (String token : List.of(ALICE, BOB, CAROL)) {
+            doReturn(jwt(token)).when(jwtParser).parse(token);
+        }
+        when(jwtParser.parse(MALLORY)).thenThrow(new SignatureException("Nice try"));
+        when(jwtParser.parse(DAVE)).thenThrow(new PrematureJwtException(null, null, "Come back tomorrow"));
+        when(jwtParser.parse(TRUDY)).thenThrow(new UnsupportedJwtException("HS256 with an RSA key"));
+        when(keyResolver.resolveSigningKeyAsync(any(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+        subject = new TokenVerifier(
+                jwtParser,
+                FastJwtParser.disabled(),
+                VerifiedTokenCache.disabled(),
+                AuthorizeMetrics.NOOP,
+                keyResolver,
+                ForkJoinPool.commonPool()
+        );
+    }
+
+    @Test
+    public void whenBatchHasDuplicates() {
+        List<TokenVerification> results = subject.verifyAll(List.of(ALICE, BOB, ALICE, CAROL, MALLORY, ALICE));
+
+        assertEquals(6, results.size());
+        assertEquals("alice", results.get(0).jwt().claims().getSubject());
+        assertEquals("bob", results.get(1).jwt().claims().getSubject());
+        assertEquals("alice", results.get(2).jwt().claims().getSubject());
+        assertEquals("carol", results.get(3).jwt().claims().getSubject());
+        assertEquals("alice", results.get(5).jwt().claims().getSubject());
+
+        verify(jwtParser, times(1)).parse(ALICE); // Not three times.
+    }
+
+    @Test
+    public void whenBatchHasABadToken() {
+        List<TokenVerification> results = subject.verifyAll(List.of(ALICE, MALLORY));
+
+        assertTrue(results.get(0).isVerified());
+        assertFalse(results.get(1).isVerified());
+        assertEquals("Unable to parse JWT", results.get(1).failure().getMessage());
+    }
+
+    @Test
+    public void whenBatchHasATokenThatIsNotValidYet() {
+        List<TokenVerification> results = subject.verifyAll(List.of(ALICE, DAVE, BOB));
+
+        assertTrue(results.get(0).isVerified());
+        assertFalse(results.get(1).isVerified());
+        assertEquals(RejectionReason.PREMATURE, results.get(1).failure().reason());
+        assertTrue(results.get(2).isVerified());
+    }
+
+    @Test
+    public void whenBatchHasATokenWhoseAlgorithmDoesNotFitItsKey() {
+        List<TokenVerification> results = subject.verifyAll(List.of(ALICE, TRUDY, CAROL));
+
+        assertTrue(results.get(0).isVerified());
+        assertFalse(results.get(1).isVerified());
+        assertEquals(RejectionReason.UNSUPPORTED, results.get(1).failure().reason());
+        assertTrue(results.get(2).isVerified());
+    }
+
+    @Test
+    public void whenTokenIsNotValidYet() {
+        ForbiddenException e = assertThrows(ForbiddenException.class, () -> subject.verify(DAVE));
+
+        assertEquals(RejectionReason.PREMATURE, e.reason());
+        assertTrue(e.getCause() instanceof PrematureJwtException);
+    }
+
+    @Test
+    public void whenKeyLookupFails() {
+        String erin = token("key-3", "erin");
+        ForbiddenException keysUnavailable = RejectionMode.DETAILED.reject(
+                RejectionReason.KEYS_UNAVAILABLE,
+                () -> "Timed out waiting for keys"
+        );
+        when(keyResolver.resolveSigningKeyAsync(null, "key-3")).thenReturn(
+                CompletableFuture.supplyAsync(() -> {
+                    throw keysUnavailable;
+                })
+        );
+
+        List<TokenVerification> results = subject.verifyAll(List.of(ALICE, erin));
+
+        assertTrue(results.get(0).isVerified());
+        assertSame(keysUnavailable, results.get(1).failure());
+        verify(jwtParser, never()).parse(erin); // Which would have waited on the JWKS endpoint all over again.
+    }
+
+    @Test
+    public void whenTokensShareSigningKeys() {
+        subject.verifyAll(List.of(ALICE, BOB, CAROL, MALLORY));
+
+        verify(keyResolver, times(1)).resolveSigningKeyAsync(null, "key-1"); // No "iss" in these tokens.
+        verify(keyResolver, times(1)).resolveSigningKeyAsync(null, "key-2");
+    }
+
+    @Test
+    public void whenRejectionModeIsFast() {
+        TokenVerifier fastSubject = new TokenVerifier(
+                jwtParser,
+                FastJwtParser.disabled(),
+                VerifiedTokenCache.disabled(),
+                AuthorizeMetrics.NOOP,
+                keyResolver,
+                ForkJoinPool.commonPool(),
+                RejectionMode.FAST
+        );
+
+        ForbiddenException first = assertThrows(ForbiddenException.class, () -> fastSubject.verify(MALLORY));
+        ForbiddenException second = assertThrows(ForbiddenException.class, () -> fastSubject.verify(MALLORY));
+
+        assertSame(first, second); // Preallocated
+        assertEquals(RejectionReason.BAD_SIGNATURE, first.reason());
+        assertEquals(0, first.getStackTrace().length);
+        assertNull(first.getCause());
+    }
+
+    @Test
+    public void whenRejectionModeIsDetailed() {
+        ForbiddenException e = assertThrows(ForbiddenException.class, () -> subject.verify(MALLORY));
+
+        assertEquals(RejectionReason.BAD_SIGNATURE, e.reason());
+        assertEquals("Unable to parse JWT", e.getMessage());
+        assertTrue(e.getCause() instanceof SignatureException);
+        assertTrue(e.getStackTrace().length > 0);
+    }
+
+    /**
+     * Two @Authorize methods that read different claims from the same token, with the fast path on. The second one
+     * reads every claim, and from then on both are served from the cache.
+     */
+    @Test
+    public void whenMethodsNeedDifferentClaims() {
+        FastJwtParser fastJwtParser = mock(FastJwtParser.class);
+        when(fastJwtParser.isEnabled()).thenReturn(true);
+        doReturn(new DefaultJws<>(null, jwt(ALICE).getBody(), "signature")).when(fastJwtParser).parse(eq(ALICE), any());
+
+        TokenVerifier cachingSubject = new TokenVerifier(
+                jwtParser,
+                fastJwtParser,
+                new VerifiedTokenCache(100, Duration.ofMinutes(5)),
+                AuthorizeMetrics.NOOP,
+                keyResolver,
+                ForkJoinPool.commonPool()
+        );
+
+        for (int i = 0; i < 3; i++) {
+            cachingSubject.verify(ALICE, Set.of("full-name"));
+            cachingSubject.verify(ALICE, Set.of("age"));
+        }
+
+        verify(fastJwtParser, times(1)).parse(ALICE, Set.of("full-name"));
+        verify(fastJwtParser, times(1)).parse(ALICE, null);
+        verify(fastJwtParser, times(2)).parse(eq(ALICE), any()); // Not six times.
+    }
+
+    /**
+     * Only the header needs to be real, for the key ID. The rest is up to the mock JwtParser.
+     */
+    private static String token(String keyId, String subject) {
+        String header = "{\"kid\":\"" + keyId + "\"}";
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(header.getBytes(StandardCharsets.UTF_8))
+                + "." + subject + ".signature";
+    }
+
+    private static Jwt<?, Claims> jwt(String token) {
+        Claims claims = new DefaultClaims(Map.of("sub", token.split("\\.")[1]));
+        return new DefaultJwt<>(null, claims);
+    }
+}
@@ -0,0 +1,117 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwt;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import space.crickets.authorize.Authorize;
+import space.crickets.authorize.BindClaim;
+import space.crickets.authorize.Jwt;
+import space.crickets.authorize.metrics.AuthorizeMetrics;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * A controller calls a service calls a repository, all @Authorize, all with the same token.
+ */
+public class VerifiedJwtContextTest {
+    private static final String ROGER = "Bearer roger";
+    private static final String RAFAEL = "Bearer rafael";
+
+    private JwtParser jwtParser;
+    private GreetingService service;
+    private GreetingController controller;
+
+    public static class GreetingRepository {
+        @Authorize(scopes = "greeting.read")
+        public String greetingFor(@Jwt String authorization, @BindClaim("full-name") String name) {
+            return "Hello " + name;
+        }
+    }
+
+    public static class GreetingService {
+        private final GreetingRepository repository;
+
+        public GreetingService(GreetingRepository repository) {
+            this.repository = repository;
+        }
+
+        @Authorize(scopes = "greeting.read")
+        public String greet(@Jwt String authorization) {
+            return repository.greetingFor(authorization, null);
+        }
+
+        @Authorize(scopes = "greeting.read")
+        public String greetOnBehalfOf(@Jwt String authorization, String otherAuthorization) {
+            return repository.greetingFor(otherAuthorization, null);
+        }
+    }
+
+    public static class GreetingController {
+        private final GreetingService service;
+
+        public GreetingController(GreetingService service) {
+            this.service = service;
+        }
+
+        @Authorize(scopes = "greeting.read")
+        public String greet(@Jwt String authorization) {
+            return service.greet(authorization);
+        }
+    }
+
+    @Before
+    public void setup() {
+        jwtParser = mock(JwtParser.class);
+        doReturn(jwt("Roger")).when(jwtParser).parse("roger");
+        doReturn(jwt("Rafael")).when(jwtParser).parse("rafael");
+
+        AuthorizeAdvice advice = new AuthorizeAdvice(jwtParser, VerifiedTokenCache.disabled(), AuthorizeMetrics.NOOP);
+        GreetingRepository repository = proxy(new GreetingRepository(), advice);
+        service = proxy(new GreetingService(repository), advice);
+        controller = proxy(new GreetingController(service), advice);
+    }
+
+    @Test
+    public void whenLayersShareAToken() {
+        assertEquals("Hello Roger", controller.greet(ROGER));
+
+        verify(jwtParser, times(1)).parse("roger"); // Not three times.
+    }
+
+    @Test
+    public void whenAnInnerLayerGetsADifferentToken() {
+        assertEquals("Hello Rafael", service.greetOnBehalfOf(ROGER, RAFAEL)); // Not Roger's JWT.
+        verify(jwtParser, times(1)).parse("rafael");
+    }
+
+    @Test
+    public void whenTheOutermostCallIsDone() {
+        controller.greet(ROGER);
+
+        assertNull(VerifiedJwtContext.lookUp(ROGER, null)); // Nothing left behind on the thread.
+    }
+
+    private static <T> T proxy(T target, AuthorizeAdvice advice) {
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(target);
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(advice);
+        return proxyFactory.getProxy();
+    }
+
+    private static io.jsonwebtoken.Jwt<?, Claims> jwt(String fullName) {
+        Claims claims = new DefaultClaims(Map.of("full-name", fullName, "scp", List.of("greeting.read")));
+        return new DefaultJwt<>(null, claims);
+    }
+}
@@ -0,0 +1,91 @@
+package space.crickets.authorize.aop;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Header;
+import io.jsonwebtoken.impl.DefaultClaims;
+import io.jsonwebtoken.impl.DefaultJwsHeader;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class VerifiedTokenCacheTest {
+    private static final String TOKEN = "j.w.t";
+
+    @Test
+    public void whenDisabled() {
+        VerifiedTokenCache subject = VerifiedTokenCache.disabled();
+        subject.put(TOKEN, jwt(Instant.now().plusSeconds(60)));
+
+        assertNull(subject.get(TOKEN));
+    }
+
+    @Test
+    public void whenTokenWasVerifiedBefore() {
+        VerifiedTokenCache subject = new VerifiedTokenCache(10, Duration.ofMinutes(5));
+        VerifiedJwt jwt = jwt(Instant.now().plusSeconds(60));
+        subject.put(TOKEN, jwt);
+
+        assertSame(jwt, subject.get(TOKEN));
+        assertNull(subject.get("some.other.token"));
+    }
+
+    @Test
+    public void whenTokenHasExpired() {
+        VerifiedTokenCache subject = new VerifiedTokenCache(10, Duration.ofMinutes(5));
+        subject.put(TOKEN, jwt(Instant.now().minusSeconds(1)));
+
+        assertNull(subject.get(TOKEN));
+    }
+
+    @Test
+    public void whenCacheIsFull() {
+        VerifiedTokenCache subject = new VerifiedTokenCache(1, Duration.ofMinutes(5));
+        subject.put(TOKEN, jwt(Instant.now().plusSeconds(60)));
+        subject.put("some.other.token", jwt(Instant.now().plusSeconds(60)));
+
+        assertNull(subject.get(TOKEN)); // evicted
+    }
+
+    @Test
+    public void whenSigningKeyIsRemoved() {
+        VerifiedTokenCache subject = new VerifiedTokenCache(10, Duration.ofMinutes(5));
+        VerifiedJwt keptJwt = jwt(Instant.now().plusSeconds(60), "key-1");
+        subject.put(TOKEN, jwt(Instant.now().plusSeconds(60), "key-2"));
+        subject.put("some.other.token", keptJwt);
+
+        subject.forgetKeys(Set.of("key-2"));
+
+        assertNull(subject.get(TOKEN));
+        assertSame(keptJwt, subject.get("some.other.token"));
+    }
+
+    private static VerifiedJwt jwt(Instant expiration) {
+        return jwt(expiration, null);
+    }
+
+    private static <H extends Header<H>> VerifiedJwt jwt(Instant expiration, String keyId) {
+        Claims claims = new DefaultClaims();
+        claims.setExpiration(Date.from(expiration));
+        DefaultJwsHeader header = keyId != null ? new DefaultJwsHeader(Map.of("kid", keyId)) : null;
+
+        return new VerifiedJwt(new io.jsonwebtoken.Jwt<H, Claims>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public H getHeader() {
+                return (H) header;
+            }
+
+            @Override
+            public Claims getBody() {
+                return claims;
+            }
+        });
+    }
+}
@@ -4,23 +4,54 @@ import com.google.gson.Gson;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.impl.DefaultClaims;
 import io.jsonwebtoken.impl.DefaultJwsHeader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import space.crickets.authorize.exceptions.ForbiddenException;
+import space.crickets.authorize.exceptions.RejectionMode;
+import space.crickets.authorize.exceptions.RejectionReason;
+import space.crickets.authorize.metrics.MicrometerAuthorizeMetrics;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.Key;
+import java.security.PublicKey;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * JwtParser comes from io.jsonwebtoken:jjwt-api. We don't want to test external code.
@@ -29,6 +60,9 @@ import static org.junit.Assert.assertThrows;
  * You'll notice that AuthorizeTest uses a mock JwtParser. So this functionality needs testing.
  */
 public class AuthorizeSigningKeyResolverTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private MockWebServer oauth2Server; // E.g. https://dev-850216.okta.com/oauth2/default
     private AuthorizeSigningKeyResolver subject;
 
@@ -39,6 +73,8 @@ public class AuthorizeSigningKeyResolverTest {
     private static final Claims CLAIMS = new DefaultClaims(); // We're not testing claims
     private static final Gson gson = new Gson();
 
+    private static final boolean VIRTUAL_THREADS = Boolean.getBoolean("authorize.test.virtual-threads");
+
     private static final Instant now = Instant.now();
     private static final Instant tenMinutesLater = now.plusSeconds(10 * 60);
 
@@ -53,13 +89,14 @@ public class AuthorizeSigningKeyResolverTest {
                 oauth2Server.url("/v1/keys").toString()
         );
 
-        subject.fetchKeys(); // Spring will call this because this method is annotated @PostConstruct.
+        subject.loadKeys(); // Spring will call this because this method is annotated @PostConstruct.
 
         assertEquals(1, oauth2Server.getRequestCount());
     }
 
     @After
     public void tearDown() throws IOException {
+        subject.stopRefreshing();
         oauth2Server.shutdown();
     }
 
@@ -120,6 +157,498 @@ public class AuthorizeSigningKeyResolverTest {
         }
     }
 
+    /**
+     * Same rotation as whenKey2IsRequested, but with a grace period. JWTs signed with key 1 just before it was
+     * retired keep checking out for a while, without another trip to the public-keys endpoint.
+     */
+    @Test
+    public void whenRetiredKeysHaveAGracePeriod() {
+        AuthorizeSigningKeyResolver graceSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withRefreshInterval(Duration.ZERO) // no background refreshing
+                        .withRetiredKeyGracePeriod(Duration.ofMinutes(1))
+        );
+
+        try {
+            oauth2Server.enqueue(keysResponse(jsonWebKey1));
+            graceSubject.loadKeys();
+            oauth2Server.enqueue(keysResponse(jsonWebKey2)); // i.e. no longer key1
+
+            try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+                rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(true);
+                graceSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS);
+                assertEquals(3, oauth2Server.getRequestCount()); // setup() + loadKeys() + the fetch for key 2
+
+                rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(false);
+                assertNotNull(graceSubject.resolveSigningKey(jwsHeader(jsonWebKey1), CLAIMS));
+                assertEquals(3, oauth2Server.getRequestCount()); // still 3
+            }
+        } finally {
+            graceSubject.stopRefreshing();
+        }
+    }
+
+    /**
+     * Same rotation again. Whoever asked (see VerifiedTokenCache) hears that key 1 is gone, so that they can stop
+     * trusting JWTs signed with it.
+     */
+    @Test
+    public void whenKeysAreRemoved() {
+        List<Set<String>> removedKeyIds = new ArrayList<>();
+        subject.onKeysRemoved(removedKeyIds::add);
+        oauth2Server.enqueue(keysResponse(jsonWebKey2)); // i.e. no longer key1
+
+        try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(true);
+            subject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS);
+        }
+
+        assertEquals(List.of(Set.of(jsonWebKey1.kid())), removedKeyIds);
+    }
+
+    /**
+     * Keys get rotated on the Oauth2 server. We should pick up key 2 in the background, without any caller
+     * having to show up with key 2 first.
+     */
+    @Test
+    public void whenKeysAreRefreshedInTheBackground() throws InterruptedException {
+        AuthorizeSigningKeyResolver refreshingSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString()).withRefreshInterval(Duration.ofMillis(100))
+        );
+
+        try {
+            oauth2Server.enqueue(keysResponse(jsonWebKey1));
+            oauth2Server.enqueue(keysResponse(jsonWebKey2));
+            refreshingSubject.fetchKeys();
+
+            oauth2Server.takeRequest(5, TimeUnit.SECONDS); // setup()
+            oauth2Server.takeRequest(5, TimeUnit.SECONDS); // refreshingSubject.fetchKeys()
+            assertNotNull(oauth2Server.takeRequest(5, TimeUnit.SECONDS)); // the background refresh
+
+            // No outbound call needed, and no RotationClock mocking needed either.
+            try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+                rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(false);
+                awaitKey(refreshingSubject, jsonWebKey2);
+            }
+        } finally {
+            refreshingSubject.stopRefreshing();
+        }
+    }
+
+    /**
+     * The public-keys endpoint hangs while a bunch of callers show up with a new key ID at once.
+     * Only one of them should go over http, and none of them should wait on it for long.
+     */
+    @Test
+    public void whenJwksEndpointHangs() throws Exception {
+        AuthorizeSigningKeyResolver hangingSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withRefreshInterval(Duration.ZERO) // no background refreshing
+                        .withFetchWaitTimeout(Duration.ofMillis(200))
+        ); // Never fetched keys, so RotationClock lets the first caller fetch.
+
+        oauth2Server.enqueue(keysResponse(jsonWebKey2).setHeadersDelay(2, TimeUnit.SECONDS));
+
+        ExecutorService callers = callerThreads(8);
+        try {
+            List<Future<ForbiddenException>> rejections = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                rejections.add(callers.submit(() -> assertThrows(
+                        ForbiddenException.class,
+                        () -> hangingSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS)
+                )));
+            }
+
+            for (Future<ForbiddenException> rejection : rejections) {
+                assertNotNull(rejection.get(1, TimeUnit.SECONDS)); // Nobody waited around for 2 seconds.
+            }
+
+            // Once the slow response does land, key 2 is there for everyone.
+            awaitKey(hangingSubject, jsonWebKey2);
+            assertEquals(2, oauth2Server.getRequestCount()); // setup() + one single-flight fetch
+        } finally {
+            callers.shutdownNow();
+            hangingSubject.stopRefreshing();
+        }
+    }
+
+    /**
+     * Lots of virtual threads turn up at once for a key we don't have yet. One of them fetches it. None of them
+     * should pin its carrier thread while doing so (the JVM reports it on System.out if they do).
+     * Only runs under JDK 21+: ./gradlew :lib:virtualThreadTest
+     */
+    @Test
+    public void whenCallersAreVirtualThreads() throws Exception {
+        assumeTrue(VIRTUAL_THREADS);
+
+        AuthorizeSigningKeyResolver virtualSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withRefreshInterval(Duration.ZERO) // no background refreshing
+        ); // Never fetched keys, so RotationClock lets the first caller fetch.
+
+        oauth2Server.enqueue(keysResponse(jsonWebKey2).setHeadersDelay(200, TimeUnit.MILLISECONDS));
+
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true));
+
+        ExecutorService callers = callerThreads(1000);
+        try {
+            List<Future<Key>> keys = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                keys.add(callers.submit(() -> virtualSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS)));
+            }
+
+            for (Future<Key> key : keys) {
+                assertNotNull(key.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+            virtualSubject.stopRefreshing();
+            System.setOut(originalOut);
+        }
+
+        assertFalse(out.toString(), out.toString().contains("<== monitors"));
+        assertEquals(2, oauth2Server.getRequestCount()); // setup() + one single-flight fetch
+    }
+
+    /**
+     * Someone keeps sending in the same made-up key ID. We go looking for it once, then remember that it's bogus,
+     * even once RotationClock would let us look again.
+     */
+    @Test
+    public void whenTheSameUnknownKeyIsRepeatedlyRequested() {
+        JsonWebKey bogusKey = new JsonWebKey("bogus", jsonWebKey2.n());
+        oauth2Server.enqueue(keysResponse(jsonWebKey1));
+
+        try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(true);
+
+            assertThrows(ForbiddenException.class, () -> subject.resolveSigningKey(jwsHeader(bogusKey), CLAIMS));
+            assertEquals(2, oauth2Server.getRequestCount());
+
+            assertThrows(ForbiddenException.class, () -> subject.resolveSigningKey(jwsHeader(bogusKey), CLAIMS));
+            assertThrows(ForbiddenException.class, () -> subject.resolveSigningKey(jwsHeader(bogusKey), CLAIMS));
+            assertEquals(2, oauth2Server.getRequestCount()); // still 2
+
+            // The real key is unaffected.
+            assertNotNull(subject.resolveSigningKey(jwsHeader(jsonWebKey1), CLAIMS));
+        }
+    }
+
+    /**
+     * Key 2 shows up before it's been long enough to look for it, so it's turned away. That's not held against it:
+     * once RotationClock allows, it's looked for, and found.
+     */
+    @Test
+    public void whenANewKeyShowsUpTooSoon() {
+        oauth2Server.enqueue(keysResponse(jsonWebKey2));
+
+        try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(false);
+            assertThrows(ForbiddenException.class, () -> subject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+            assertEquals(1, oauth2Server.getRequestCount()); // Too soon to look.
+
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(true);
+            assertNotNull(subject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+            assertEquals(2, oauth2Server.getRequestCount());
+        }
+    }
+
+    /**
+     * Key 2 isn't published yet the first time it's asked for. Once keys that have it are, it checks out straight
+     * away, however recently it was turned away.
+     */
+    @Test
+    public void whenARejectedKeyIsPublished() {
+        oauth2Server.enqueue(keysResponse(jsonWebKey1)); // Not yet key 2
+        oauth2Server.enqueue(keysResponse(jsonWebKey2));
+
+        try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(true);
+            assertThrows(ForbiddenException.class, () -> subject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+            assertEquals(2, oauth2Server.getRequestCount());
+
+            subject.fetchKeys(); // E.g. the background refresh.
+
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(false);
+            assertNotNull(subject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+            assertEquals(3, oauth2Server.getRequestCount());
+        }
+    }
+
+    /**
+     * Made-up key IDs are the cheapest thing an attacker can send. Under RejectionMode.FAST they cost no stack trace.
+     */
+    @Test
+    public void whenUnknownKeysAreRejectedFast() {
+        AuthorizeSigningKeyResolver fastSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withRefreshInterval(Duration.ZERO) // no background refreshing
+                        .withRejectionMode(RejectionMode.FAST)
+        );
+        oauth2Server.enqueue(keysResponse(jsonWebKey1));
+        fastSubject.loadKeys();
+
+        try {
+            JsonWebKey bogusKey = new JsonWebKey("bogus", jsonWebKey2.n());
+            ForbiddenException rejection = assertThrows(
+                    ForbiddenException.class,
+                    () -> fastSubject.resolveSigningKey(jwsHeader(bogusKey), CLAIMS)
+            );
+
+            assertSame(ForbiddenException.stackless(RejectionReason.UNKNOWN_KEY), rejection);
+            assertEquals(0, rejection.getStackTrace().length);
+        } finally {
+            fastSubject.stopRefreshing();
+        }
+    }
+
+    /**
+     * Every successful fetch leaves a snapshot behind. The next instance to start up uses it straight away,
+     * without waiting on the public-keys endpoint.
+     */
+    @Test
+    public void whenStartingFromASnapshot() throws Exception {
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("jwks.json");
+        JwksSettings settings = new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                .withSnapshotFile(snapshotFile);
+
+        AuthorizeSigningKeyResolver firstInstance = new AuthorizeSigningKeyResolver(settings);
+        oauth2Server.enqueue(keysResponse(jsonWebKey2));
+        firstInstance.loadKeys(); // No snapshot yet, so this goes over http.
+        firstInstance.stopRefreshing();
+
+        assertEquals(2, oauth2Server.getRequestCount());
+        assertTrue(Files.exists(snapshotFile));
+
+        // Meanwhile, the endpoint is down.
+        oauth2Server.enqueue(new MockResponse().setResponseCode(503));
+
+        AuthorizeSigningKeyResolver secondInstance = new AuthorizeSigningKeyResolver(settings);
+        try {
+            secondInstance.loadKeys();
+            assertNotNull(secondInstance.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+            assertEquals(2, oauth2Server.getRequestCount()); // still 2, any refresh comes later in the background
+        } finally {
+            secondInstance.stopRefreshing();
+        }
+    }
+
+    /**
+     * Two JVMs on one host (well, two instances in this one) sharing a snapshot. When one of them fetches keys,
+     * the other picks them up from the snapshot, without calling the public-keys endpoint itself.
+     */
+    @Test
+    public void whenTheSnapshotIsShared() throws Exception {
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("shared/jwks.json");
+        JwksSettings settings = new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                .withRefreshInterval(Duration.ZERO)
+                .withSnapshotFile(snapshotFile)
+                .withSharedSnapshot(true);
+
+        AuthorizeSigningKeyResolver firstInstance = new AuthorizeSigningKeyResolver(settings);
+        AuthorizeSigningKeyResolver secondInstance = new AuthorizeSigningKeyResolver(settings);
+
+        try (MockedStatic<RotationClock> rotationClockMock = Mockito.mockStatic(RotationClock.class)) {
+            // Only the snapshot can get key 2 to the second instance.
+            rotationClockMock.when(() -> RotationClock.hasBeenLongEnoughSinceLastRotation(Mockito.any(Instant.class))).thenReturn(false);
+
+            oauth2Server.enqueue(keysResponse(jsonWebKey1));
+            firstInstance.loadKeys();
+            secondInstance.loadKeys(); // From the snapshot the first instance just wrote.
+            assertEquals(2, oauth2Server.getRequestCount());
+
+            oauth2Server.enqueue(keysResponse(jsonWebKey2));
+            firstInstance.fetchKeys();
+            assertEquals(3, oauth2Server.getRequestCount());
+
+            awaitKey(secondInstance, jsonWebKey2);
+            assertEquals(3, oauth2Server.getRequestCount()); // still 3
+        } finally {
+            firstInstance.stopRefreshing();
+            secondInstance.stopRefreshing();
+        }
+    }
+
+    /**
+     * Whoever holds the snapshot's lock might be hung, or gone without the OS noticing (e.g. on a network file
+     * system). Rather than wait forever, give up once a fetch would have timed out, and fetch without it.
+     */
+    @Test
+    public void whenTheSharedSnapshotStaysLocked() throws Exception {
+        Path snapshotFile = temporaryFolder.getRoot().toPath().resolve("jwks.json");
+        AuthorizeSigningKeyResolver lockedOutSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withFetchTimeout(Duration.ofMillis(200))
+                        .withSnapshotFile(snapshotFile)
+                        .withSharedSnapshot(true)
+        );
+        oauth2Server.enqueue(keysResponse(jsonWebKey2));
+
+        try (FileChannel channel = FileChannel.open(
+                     snapshotFile.resolveSibling("jwks.json.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            lockedOutSubject.loadKeys(); // No snapshot yet, and the lock never comes free.
+            assertEquals(2, oauth2Server.getRequestCount());
+            assertNotNull(lockedOutSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+        } finally {
+            lockedOutSubject.stopRefreshing();
+        }
+    }
+
+    @Test
+    public void whenTheSnapshotIsCorrupt() throws Exception {
+        Path snapshotFile = temporaryFolder.newFile("jwks.json").toPath();
+        Files.writeString(snapshotFile, "{ this is not json");
+
+        AuthorizeSigningKeyResolver snapshotSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString()).withSnapshotFile(snapshotFile)
+        );
+        oauth2Server.enqueue(keysResponse(jsonWebKey2));
+
+        try {
+            snapshotSubject.loadKeys(); // Falls back to http.
+            assertEquals(2, oauth2Server.getRequestCount());
+            assertNotNull(snapshotSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+        } finally {
+            snapshotSubject.stopRefreshing();
+        }
+    }
+
+    @Test
+    public void whenIssuersHaveTheSameHashCode() {
+        assertEquals("https://Aa".hashCode(), "https://BB".hashCode());
+        JwksSettings settings = new JwksSettings("https://ignore-me.com/v1/keys")
+                .withSnapshotFile(Path.of("/var/cache/jwks.json"));
+
+        // Each issuer still gets a snapshot file of its own.
+        Path snapshotFileA = settings.forIssuer("https://Aa").snapshotFile();
+        Path snapshotFileB = settings.forIssuer("https://BB").snapshotFile();
+        assertFalse(snapshotFileA.equals(snapshotFileB));
+        assertEquals(Path.of("/var/cache"), snapshotFileA.getParent());
+    }
+
+    /**
+     * Reactive callers get a future instead of blocking. With the endpoint hanging, it fails on its own
+     * shortly after the wait timeout.
+     */
+    @Test
+    public void whenResolvingAsynchronously() throws Exception {
+        AuthorizeSigningKeyResolver asyncSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withRefreshInterval(Duration.ZERO)
+                        .withFetchWaitTimeout(Duration.ofMillis(200))
+        ); // Never fetched keys, so RotationClock lets us fetch.
+
+        try {
+            oauth2Server.enqueue(keysResponse(jsonWebKey1).setHeadersDelay(2, TimeUnit.SECONDS));
+
+            CompletableFuture<PublicKey> hanging = asyncSubject.resolveSigningKeyAsync(jsonWebKey1.kid());
+            assertFalse(hanging.isDone()); // We didn't block waiting for it.
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> hanging.get(1, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof ForbiddenException);
+
+            // The fetch carries on regardless, and everyone can use key 1 once it lands.
+            awaitKey(asyncSubject, jsonWebKey1);
+            assertNotNull(asyncSubject.resolveSigningKeyAsync(jsonWebKey1.kid()).getNow(null));
+        } finally {
+            asyncSubject.stopRefreshing();
+        }
+    }
+
+    @Test
+    public void metricsAreRecorded() {
+        MeterRegistry registry = new SimpleMeterRegistry();
+        AuthorizeSigningKeyResolver meteredSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString()).withRefreshInterval(Duration.ZERO),
+                new MicrometerAuthorizeMetrics(registry)
+        );
+        oauth2Server.enqueue(keysResponse(jsonWebKey1));
+        meteredSubject.loadKeys();
+
+        meteredSubject.resolveSigningKeyAsync(jsonWebKey1.kid()).join(); // A prefetch. Only the verify counts.
+        meteredSubject.resolveSigningKey(jwsHeader(jsonWebKey1), CLAIMS);
+        meteredSubject.resolveSigningKey(jwsHeader(jsonWebKey1), CLAIMS);
+        assertThrows(ForbiddenException.class, () -> meteredSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+
+        assertEquals(1, registry.get("authorize.jwks.fetch").tag("outcome", "success").timer().count());
+        assertEquals(2, registry.get("authorize.keys.cache").tag("result", "hit").counter().count(), 0);
+        assertEquals(1, registry.get("authorize.keys.cache").tag("result", "miss").counter().count(), 0);
+        assertEquals(1, registry.get("authorize.rejections").tag("reason", "unknown_key").counter().count(), 0);
+    }
+
+    /**
+     * A second Oauth2 server, with keys of its own. JWTs it issued get checked against its keys, and nobody else's.
+     */
+    @Test
+    public void whenThereAreMultipleIssuers() throws IOException {
+        MockWebServer otherOauth2Server = new MockWebServer();
+        otherOauth2Server.start();
+        otherOauth2Server.enqueue(keysResponse(jsonWebKey2));
+        oauth2Server.enqueue(keysResponse(jsonWebKey1));
+
+        AuthorizeSigningKeyResolver federatedSubject = new AuthorizeSigningKeyResolver(
+                new JwksSettings(oauth2Server.url("/v1/keys").toString())
+                        .withIssuerJwksUrls(Map.of("https://other.example.com", otherOauth2Server.url("/v1/keys").toString()))
+        );
+
+        try {
+            federatedSubject.loadKeys();
+
+            Claims otherClaims = new DefaultClaims(Map.of("iss", "https://other.example.com"));
+            assertNotNull(federatedSubject.resolveSigningKey(jwsHeader(jsonWebKey2), otherClaims));
+            assertNotNull(federatedSubject.resolveSigningKey(jwsHeader(jsonWebKey1), CLAIMS)); // No "iss": the default url.
+
+            // Right key ID, wrong issuer.
+            assertThrows(ForbiddenException.class, () -> federatedSubject.resolveSigningKey(jwsHeader(jsonWebKey1), otherClaims));
+            assertThrows(ForbiddenException.class, () -> federatedSubject.resolveSigningKey(jwsHeader(jsonWebKey2), CLAIMS));
+
+            assertEquals(1, otherOauth2Server.getRequestCount());
+        } finally {
+            federatedSubject.stopRefreshing();
+            otherOauth2Server.shutdown();
+        }
+    }
+
+    @Test
+    public void refreshDelayHonorsMaxAge() {
+        assertEquals(
+                Duration.ofMinutes(10),
+                subject.refreshDelay(cacheControl("max-age=600"))
+        );
+        assertEquals(
+                AuthorizeSigningKeyResolver.MIN_MAX_AGE, // too small, so clamped
+                subject.refreshDelay(cacheControl("max-age=5"))
+        );
+        assertEquals(
+                JwksSettings.DEFAULT_REFRESH_INTERVAL,
+                subject.refreshDelay(cacheControl("no-transform"))
+        );
+    }
+
+    private static CacheControl cacheControl(String value) {
+        return CacheControl.parse(Headers.of("Cache-Control", value));
+    }
+
+    /**
+     * The response from the background refresh lands a moment after the request does.
+     */
+    private void awaitKey(AuthorizeSigningKeyResolver resolver, JsonWebKey jsonWebKey) throws InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                assertNotNull(resolver.resolveSigningKey(jwsHeader(jsonWebKey), CLAIMS));
+                return;
+            } catch (ForbiddenException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
     /**
      * Represents the response from an Oauth2 server public-keys endpoint. E.g.:
      * ```
@@ -145,4 +674,16 @@ public class AuthorizeSigningKeyResolverTest {
     private DefaultJwsHeader jwsHeader(JsonWebKey jsonWebKey) {
         return new DefaultJwsHeader(Map.of("kid", jsonWebKey.kid()));
     }
-}
\ No newline at end of file
+
+    /**
+     * Virtual threads under ./gradlew :lib:virtualThreadTest, platform threads otherwise. Looked up reflectively
+     * because the library itself still targets Java 17.
+     */
+    private static ExecutorService callerThreads(int count) throws Exception {
+        if (VIRTUAL_THREADS) {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+
+        return Executors.newFixedThreadPool(count);
+    }
+}
@@ -0,0 +1,161 @@
+package space.crickets.authorize.signing;
+
+import com.google.gson.Gson;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.Jws;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.SignatureException;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import space.crickets.authorize.exceptions.ForbiddenException;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Signs real JWTs with a locally generated key, serves the public half from a fake JWKS endpoint, and checks that
+ * FastJwtParser comes to the same conclusions jjwt does.
+ */
+public class FastJwtParserTest {
+    private static final String KEY_ID = "fast";
+
+    private static KeyPair keyPair;
+
+    private MockWebServer oauth2Server;
+    private AuthorizeSigningKeyResolver resolver;
+    private FastJwtParser subject;
+
+    @Before
+    public void setup() throws Exception {
+        if (keyPair == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            keyPair = generator.generateKeyPair();
+        }
+
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        JsonWebKey jsonWebKey = new JsonWebKey(
+                "RSA", "sig", null, "RS256", KEY_ID, base64Url(publicKey.getPublicExponent()), base64Url(publicKey.getModulus()), null, null, null
+        );
+
+        oauth2Server = new MockWebServer();
+        oauth2Server.start();
+        oauth2Server.enqueue(new MockResponse().setBody(new Gson().toJson(new JsonWebKeys(jsonWebKey))));
+
+        resolver = new AuthorizeSigningKeyResolver(oauth2Server.url("/v1/keys").toString());
+        resolver.loadKeys();
+
+        subject = new FastJwtParser(resolver);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        resolver.stopRefreshing();
+        oauth2Server.shutdown();
+    }
+
+    @Test
+    public void whenTokenIsGood() {
+        String token = token(Map.of(
+                "scp", List.of("greeting.read"),
+                "age", 14,
+                "big", 5_000_000_000L,
+                "full-name", "Roger Federer",
+                "ignored", Map.of("nested", true)
+        ), Instant.now().plusSeconds(60));
+
+        Jws<Claims> jws = subject.parse(token, Set.of("scp", "age", "big", "full-name"));
+        Claims expected = Jwts.parserBuilder().setSigningKeyResolver(resolver).build().parseClaimsJws(token).getBody();
+
+        assertEquals(KEY_ID, jws.getHeader().getKeyId());
+        assertEquals(expected.get("scp"), jws.getBody().get("scp"));
+        assertEquals(expected.get("age"), jws.getBody().get("age")); // Integer, same as jjwt.
+        assertEquals(expected.get("big"), jws.getBody().get("big")); // Long, same as jjwt.
+        assertEquals(expected.get("full-name"), jws.getBody().get("full-name"));
+        assertEquals(expected.getExpiration(), jws.getBody().getExpiration());
+        assertFalse(jws.getBody().containsKey("ignored")); // Nobody asked for it.
+    }
+
+    @Test
+    public void whenAllClaimsAreWanted() {
+        String token = token(Map.of("ignored", Map.of("nested", true)), Instant.now().plusSeconds(60));
+
+        assertEquals(Map.of("nested", true), subject.parse(token, null).getBody().get("ignored"));
+    }
+
+    @Test
+    public void whenPayloadIsTamperedWith() {
+        String token = token(Map.of("age", 14), Instant.now().plusSeconds(60));
+        String[] parts = token.split("\\.");
+        String forged = Base64.getUrlEncoder().withoutPadding().encodeToString("{\"age\":41}".getBytes());
+
+        assertThrows(SignatureException.class, () -> subject.parse(parts[0] + "." + forged + "." + parts[2], Set.of("age")));
+    }
+
+    @Test
+    public void whenTokenHasExpired() {
+        String token = token(Map.of("age", 14), Instant.now().minusSeconds(60));
+
+        assertThrows(ExpiredJwtException.class, () -> subject.parse(token, Set.of("age")));
+    }
+
+    @Test
+    public void whenTokenIsMalformed() {
+        String token = token(Map.of("age", 14), Instant.now().plusSeconds(60));
+        String[] parts = token.split("\\.");
+
+        assertThrows(MalformedJwtException.class, () -> subject.parse(parts[0] + "." + parts[1], Set.of()));
+        assertThrows(MalformedJwtException.class, () -> subject.parse(parts[0] + "." + parts[1] + ".", Set.of()));
+        assertThrows(MalformedJwtException.class, () -> subject.parse("*" + token, Set.of()));
+        assertThrows(IllegalArgumentException.class, () -> subject.parse(null, Set.of()));
+    }
+
+    @Test
+    public void whenKeyIsUnknown() {
+        oauth2Server.enqueue(new MockResponse().setBody("{\"keys\":[]}"));
+
+        String token = Jwts.builder()
+                .setHeaderParam("kid", "someone-else")
+                .setClaims(Map.of("age", 14))
+                .signWith(keyPair.getPrivate(), SignatureAlgorithm.RS256)
+                .compact();
+
+        assertThrows(ForbiddenException.class, () -> subject.parse(token, Set.of("age")));
+    }
+
+    private static String token(Map<String, Object> claims, Instant expiration) {
+        return Jwts.builder()
+                .setHeaderParam("kid", KEY_ID)
+                .addClaims(claims)
+                .setExpiration(Date.from(expiration))
+                .signWith(keyPair.getPrivate(), SignatureAlgorithm.RS256)
+                .compact();
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length); // drop the sign byte
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
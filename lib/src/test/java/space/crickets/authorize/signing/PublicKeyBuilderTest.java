@@ -0,0 +1,104 @@
+package space.crickets.authorize.signing;
+
+import org.junit.Test;
+import space.crickets.authorize.exceptions.ForbiddenException;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+/**
+ * Generates key pairs locally, describes the public halves as JWKs the way an Oauth2 server would, and checks
+ * that PublicKeyBuilder gets the same public keys back out.
+ */
+public class PublicKeyBuilderTest {
+    private final PublicKeyBuilder subject = new PublicKeyBuilder();
+
+    @Test
+    public void whenKeyIsEcP256() throws Exception {
+        assertEcRoundTrip("P-256", "secp256r1", 32);
+    }
+
+    @Test
+    public void whenKeyIsEcP384() throws Exception {
+        assertEcRoundTrip("P-384", "secp384r1", 48);
+    }
+
+    @Test
+    public void whenKeyIsEd25519() throws Exception {
+        PublicKey expected = KeyPairGenerator.getInstance("Ed25519").generateKeyPair().getPublic();
+
+        // The X.509 encoding of an Ed25519 key is a fixed 12 byte prefix, then the raw 32 byte key that JWKs use.
+        byte[] encoded = expected.getEncoded();
+        byte[] raw = Arrays.copyOfRange(encoded, encoded.length - 32, encoded.length);
+
+        PublicKey actual = subject.buildPublicKey(JsonWebKey.okp("ed", "Ed25519", base64Url(raw)));
+
+        assertEquals("EdDSA", actual.getAlgorithm());
+        assertArrayEquals(expected.getEncoded(), actual.getEncoded());
+    }
+
+    @Test
+    public void whenCurveIsUnsupported() {
+        assertThrows(
+                ForbiddenException.class,
+                () -> subject.buildPublicKey(JsonWebKey.ec("ec", "ES256K", "secp256k1", "AA", "AA"))
+        );
+    }
+
+    @Test
+    public void whenKeyTypeIsUnsupported() {
+        assertThrows(
+                ForbiddenException.class,
+                () -> subject.buildPublicKey(new JsonWebKey("oct", "sig", null, "HS256", "hmac", null, null, null, null, null))
+        );
+    }
+
+    @Test
+    public void whenKeyIsNotForSignatures() {
+        assertThrows(
+                ForbiddenException.class,
+                () -> subject.buildPublicKey(new JsonWebKey("EC", "enc", null, null, "ec", null, null, "P-256", "AA", "AA"))
+        );
+    }
+
+    private void assertEcRoundTrip(String crv, String curve, int coordinateLength) throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        ECPublicKey expected = (ECPublicKey) generator.generateKeyPair().getPublic();
+
+        PublicKey actual = subject.buildPublicKey(JsonWebKey.ec(
+                "ec",
+                "ES256",
+                crv,
+                base64Url(expected.getW().getAffineX(), coordinateLength),
+                base64Url(expected.getW().getAffineY(), coordinateLength)
+        ));
+
+        assertEquals("EC", actual.getAlgorithm());
+        assertArrayEquals(expected.getEncoded(), actual.getEncoded());
+    }
+
+    /**
+     * SEC1 octet string: big-endian, left-padded to the full size of a coordinate.
+     */
+    private static String base64Url(BigInteger coordinate, int length) {
+        byte[] bytes = coordinate.toByteArray();
+        byte[] padded = new byte[length];
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, padded, length - copy, copy);
+        return base64Url(padded);
+    }
+
+    private static String base64Url(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
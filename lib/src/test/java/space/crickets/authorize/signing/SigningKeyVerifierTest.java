@@ -0,0 +1,119 @@
+package space.crickets.authorize.signing;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Signs with locally generated keys, the way an Oauth2 server would, and checks the signatures with
+ * SigningKeyVerifier.
+ */
+public class SigningKeyVerifierTest {
+    private static final byte[] SIGNING_INPUT = "eyJhbGciOiJub25lIn0.eyJzdWIiOiJ1c2VyIn0".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void whenRs256SignatureIsGood() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk(null), keyPair.getPublic());
+
+        assertTrue(verify(subject, "RS256", sign("SHA256withRSA", keyPair.getPrivate())));
+        assertTrue(verify(subject, "RS256", sign("SHA256withRSA", keyPair.getPrivate()))); // Reused Signature.
+    }
+
+    @Test
+    public void whenEs256SignatureIsGood() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+
+        SigningKeyVerifier subject = SigningKeyVerifier.of(JsonWebKey.ec("ec", "ES256", "P-256", null, null), keyPair.getPublic());
+
+        assertTrue(verify(subject, "ES256", sign("SHA256withECDSAinP1363Format", keyPair.getPrivate())));
+    }
+
+    @Test
+    public void whenEdDsaSignatureIsGood() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+
+        SigningKeyVerifier subject = SigningKeyVerifier.of(JsonWebKey.okp("ed", "Ed25519", null), keyPair.getPublic());
+
+        assertTrue(verify(subject, "EdDSA", sign("Ed25519", keyPair.getPrivate())));
+    }
+
+    @Test
+    public void whenSignatureIsTamperedWith() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk(null), keyPair.getPublic());
+
+        byte[] signature = sign("SHA256withRSA", keyPair.getPrivate());
+        signature[0] ^= 1;
+
+        assertFalse(verify(subject, "RS256", signature));
+        assertTrue(verify(subject, "RS256", sign("SHA256withRSA", keyPair.getPrivate()))); // Still usable after.
+    }
+
+    @Test
+    public void whenSignatureIsGarbage() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk(null), keyPair.getPublic());
+
+        assertFalse(verify(subject, "RS256", new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void whenJwkPinsTheAlgorithm() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk("RS256"), keyPair.getPublic());
+
+        // A good signature, but not made the way the JWKS says this key is used.
+        assertFalse(verify(subject, "RS512", sign("SHA512withRSA", keyPair.getPrivate())));
+    }
+
+    @Test
+    public void whenJwkPinsAnAlgorithmTheKeyCannotDo() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk("ES256"), keyPair.getPublic()); // Fine until used.
+
+        assertFalse(verify(subject, "ES256", sign("SHA256withRSA", keyPair.getPrivate())));
+        assertFalse(verify(subject, "ES256", sign("SHA256withRSA", keyPair.getPrivate()))); // Remembered.
+    }
+
+    @Test
+    public void whenJwkDoesNotPinTheAlgorithm() throws Exception {
+        KeyPair keyPair = rsaKeyPair();
+        SigningKeyVerifier subject = SigningKeyVerifier.of(rsaJwk(null), keyPair.getPublic());
+
+        assertTrue(verify(subject, "RS512", sign("SHA512withRSA", keyPair.getPrivate())));
+        assertFalse(verify(subject, "ES256", sign("SHA256withRSA", keyPair.getPrivate()))); // Wrong key type.
+        assertFalse(verify(subject, "none", new byte[0]));
+    }
+
+    private static KeyPair rsaKeyPair() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static JsonWebKey rsaJwk(String alg) {
+        return new JsonWebKey("RSA", "sig", null, alg, "rsa", "AQAB", null, null, null, null);
+    }
+
+    private static byte[] sign(String algorithm, PrivateKey privateKey) throws Exception {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(privateKey);
+        signature.update(SIGNING_INPUT);
+        return signature.sign();
+    }
+
+    private static boolean verify(SigningKeyVerifier subject, String alg, byte[] signature) {
+        return subject.verify(alg, SIGNING_INPUT, 0, SIGNING_INPUT.length, signature);
+    }
+}
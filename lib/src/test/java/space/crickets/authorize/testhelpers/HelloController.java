@@ -1,5 +1,7 @@
 package space.crickets.authorize.testhelpers;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import space.crickets.authorize.Authorize;
 import space.crickets.authorize.BindClaim;
 import space.crickets.authorize.Jwt;
@@ -49,6 +51,18 @@ public class HelloController {
         return "Hello " + name;
     }
 
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    @GetMapping("/{name}")
+    public String getGreetingByName_matchLoosely(
+            @PathVariable @MatchClaim(value = "full-name", ignoreCase = true) String name,
+            @RequestHeader @MatchClaim("age") long ignoredAge,
+            @RequestHeader @MatchClaim("scp") String ignoredScope,
+            @RequestHeader @Jwt String ignoredAuthorization
+    ) {
+        // do something
+        return "Hello " + name;
+    }
+
     @Authorize(scopes = {"greeting.read", "greeting.write"})
     @GetMapping("/{name}")
     public String getGreetingByName_bindAndCheckAge(
@@ -65,4 +79,33 @@ public class HelloController {
         // do something
         return "Hello " + name;
     }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    @GetMapping("/{name}")
+    public String getGreetingByName_bindLongAge(
+            @PathVariable @MatchClaim("full-name") String name,
+            @BindClaim("age") long age,
+            @RequestHeader @Jwt String ignoredAuthorization
+    ) {
+        // do something
+        return "Hello " + name + ", " + age;
+    }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    @GetMapping("/{name}")
+    public Mono<String> getGreetingByName_reactive(
+            @PathVariable @MatchClaim("full-name") String name,
+            @RequestHeader @Jwt String ignoredAuthorization
+    ) {
+        return Mono.just("Hello " + name);
+    }
+
+    @Authorize(scopes = {"greeting.read", "greeting.write"})
+    @GetMapping("/{name}")
+    public Flux<String> getGreetingsByName_reactive(
+            @PathVariable @MatchClaim("full-name") String name,
+            @RequestHeader @Jwt String ignoredAuthorization
+    ) {
+        return Flux.just("Hello " + name, "Hi " + name);
+    }
 }
@@ -0,0 +1,347 @@
+package space.crickets.authorize.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Works out, at compile time, what AuthorizationPlan would otherwise work out by reflection when each @Authorize method
+ * is first called: where the @Jwt is, which arguments have to match which claims, and which get claims bound to them.
+ * <p>
+ * For each class with @Authorize methods, generates a `<Class>_AuthorizationDescriptor` next to it, and lists them all
+ * in META-INF/services/space.crickets.authorize.aop.AuthorizationDescriptor. Misuse that would otherwise only show up
+ * at startup (no @Jwt parameter, a @BindClaim parameter that can't take a claim value, ...) fails the build instead.
+ * <p>
+ * Goes by annotation names rather than classes, so that it doesn't need the library on the processor path.
+ */
+public class AuthorizeProcessor extends AbstractProcessor {
+    static final String AUTHORIZE = "space.crickets.authorize.Authorize";
+    static final String JWT = "space.crickets.authorize.Jwt";
+    static final String MATCH_CLAIM = "space.crickets.authorize.MatchClaim";
+    static final String BIND_CLAIM = "space.crickets.authorize.BindClaim";
+    static final String DESCRIPTOR = "space.crickets.authorize.aop.AuthorizationDescriptor";
+    static final String METHOD_DESCRIPTOR = "space.crickets.authorize.aop.MethodDescriptor";
+    static final String SERVICES_FILE = "META-INF/services/" + DESCRIPTOR;
+
+    // What a claim can come out of the JSON as. Same list as AuthorizationPlan's.
+    private static final List<String> CLAIM_TYPES = List.of(
+            "java.lang.String",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.math.BigInteger",
+            "java.lang.Double",
+            "java.lang.Boolean",
+            "java.util.List",
+            "java.util.Map"
+    );
+
+    private final Set<String> generated = new TreeSet<>(); // Sorted, so the services file comes out the same each time.
+
+    private Elements elements;
+    private Types types;
+    private Messager messager;
+    private Filer filer;
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        messager = processingEnv.getMessager();
+        filer = processingEnv.getFiler();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return Set.of(AUTHORIZE);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServicesFile();
+            return false;
+        }
+
+        TypeElement authorize = elements.getTypeElement(AUTHORIZE);
+        if (authorize == null) {
+            return false; // Nothing to do without the library.
+        }
+
+        Map<TypeElement, List<ExecutableElement>> methodsByClass = new LinkedHashMap<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(roundEnv.getElementsAnnotatedWith(authorize))) {
+            methodsByClass.computeIfAbsent((TypeElement) method.getEnclosingElement(), type -> new ArrayList<>())
+                    .add(method);
+        }
+
+        methodsByClass.forEach(this::describe);
+        return false; // Leave @Authorize for anyone else who wants to look at it.
+    }
+
+    private void describe(TypeElement type, List<ExecutableElement> methods) {
+        List<String> methodDescriptors = new ArrayList<>();
+        boolean valid = true;
+
+        for (ExecutableElement method : methods) {
+            String methodDescriptor = describe(method);
+            valid &= methodDescriptor != null;
+            methodDescriptors.add(methodDescriptor);
+        }
+
+        if (!valid || !isReachable(type)) {
+            return; // Broken methods have already been reported. Unreachable classes are left to reflection.
+        }
+
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String simpleName = descriptorName(type);
+        String qualifiedName = packageName.isEmpty() ? simpleName : packageName + "." + simpleName;
+
+        try (Writer writer = filer.createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(source(packageName, simpleName, type, methodDescriptors));
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Couldn't write " + qualifiedName + ": " + e, type);
+            return;
+        }
+
+        generated.add(qualifiedName);
+    }
+
+    /**
+     * A `new MethodDescriptor(...)` expression, or null if the method was reported as broken.
+     */
+    private String describe(ExecutableElement method) {
+        List<? extends VariableElement> parameters = method.getParameters();
+
+        int jwtIndex = -1;
+        List<String> parameterTypes = new ArrayList<>();
+        List<String> matchClaimIndices = new ArrayList<>();
+        List<String> matchClaimNames = new ArrayList<>();
+        List<String> matchClaimIgnoreCase = new ArrayList<>();
+        List<String> bindClaimIndices = new ArrayList<>();
+        List<String> bindClaimNames = new ArrayList<>();
+        boolean valid = true;
+
+        for (int i = 0; i < parameters.size(); i++) {
+            VariableElement parameter = parameters.get(i);
+            TypeMirror type = types.erasure(parameter.asType());
+            parameterTypes.add(type + ".class");
+
+            if (jwtIndex < 0 && annotation(parameter, JWT) != null) {
+                if (!isType(type, "java.lang.String")) {
+                    error(parameter, "@Jwt parameter has to be a String, not " + type);
+                    valid = false;
+                }
+
+                jwtIndex = i; // First one wins, same as AuthorizationPlan.
+            }
+
+            AnnotationMirror matchClaim = annotation(parameter, MATCH_CLAIM);
+            if (matchClaim != null) {
+                boolean ignoreCase = (Boolean) value(matchClaim, "ignoreCase");
+                if (ignoreCase && !isCharSequence(type)) {
+                    error(parameter, "@MatchClaim(ignoreCase = true) only works on String parameters, not " + type);
+                    valid = false;
+                }
+
+                matchClaimIndices.add(String.valueOf(i));
+                matchClaimNames.add(elements.getConstantExpression(value(matchClaim, "value")));
+                matchClaimIgnoreCase.add(String.valueOf(ignoreCase));
+            }
+
+            AnnotationMirror bindClaim = annotation(parameter, BIND_CLAIM);
+            if (bindClaim != null) {
+                if (!canTakeAClaim(type)) {
+                    error(parameter, "@BindClaim parameter can't take a claim value; "
+                            + type + " should be e.g. String, Integer, List or Object");
+                    valid = false;
+                }
+
+                bindClaimIndices.add(String.valueOf(i));
+                bindClaimNames.add(elements.getConstantExpression(value(bindClaim, "value")));
+            }
+        }
+
+        if (jwtIndex < 0) {
+            error(method, "@Authorize method needs a @Jwt parameter");
+            valid = false;
+        }
+
+        if (!valid) {
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<? extends AnnotationValue> scopes =
+                (List<? extends AnnotationValue>) value(annotation(method, AUTHORIZE), "scopes");
+
+        return "new " + METHOD_DESCRIPTOR + "(\n"
+                + "                        " + elements.getConstantExpression(method.getSimpleName().toString()) + ",\n"
+                + "                        new Class<?>[] {" + String.join(", ", parameterTypes) + "},\n"
+                + "                        " + jwtIndex + ",\n"
+                + "                        new String[] {" + scopes.stream()
+                        .map(scope -> elements.getConstantExpression(scope.getValue()))
+                        .collect(Collectors.joining(", ")) + "},\n"
+                + "                        new int[] {" + String.join(", ", matchClaimIndices) + "},\n"
+                + "                        new String[] {" + String.join(", ", matchClaimNames) + "},\n"
+                + "                        new boolean[] {" + String.join(", ", matchClaimIgnoreCase) + "},\n"
+                + "                        new int[] {" + String.join(", ", bindClaimIndices) + "},\n"
+                + "                        new String[] {" + String.join(", ", bindClaimNames) + "}\n"
+                + "                )";
+    }
+
+    private String source(String packageName, String simpleName, TypeElement type, List<String> methodDescriptors) {
+        StringBuilder source = new StringBuilder();
+
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+
+        source.append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+                .append("public final class ").append(simpleName).append(" implements ").append(DESCRIPTOR)
+                .append(" {\n")
+                .append("    @Override\n")
+                .append("    public Class<?> declaringClass() {\n")
+                .append("        return ").append(type.getQualifiedName()).append(".class;\n")
+                .append("    }\n\n")
+                .append("    @Override\n")
+                .append("    public java.util.List<").append(METHOD_DESCRIPTOR).append("> methods() {\n")
+                .append("        return java.util.List.of(\n")
+                .append("                ")
+                .append(String.join(",\n                ", methodDescriptors)).append("\n")
+                .append("        );\n")
+                .append("    }\n")
+                .append("}\n");
+
+        return source.toString();
+    }
+
+    private void writeServicesFile() {
+        if (generated.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject servicesFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "", SERVICES_FILE);
+            try (Writer writer = servicesFile.openWriter()) {
+                for (String descriptor : generated) {
+                    writer.write(descriptor);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Couldn't write " + SERVICES_FILE + ": " + e);
+        }
+    }
+
+    /**
+     * E.g. Outer_Inner_AuthorizationDescriptor for a nested class.
+     */
+    private static String descriptorName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+
+        for (Element enclosing = type.getEnclosingElement();
+             enclosing instanceof TypeElement;
+             enclosing = enclosing.getEnclosingElement()) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+        }
+
+        return name.append("_AuthorizationDescriptor").toString();
+    }
+
+    /**
+     * Whether generated code in the same package can say Type.class. Not for private or local classes.
+     */
+    private static boolean isReachable(TypeElement type) {
+        Element element = type;
+
+        while (element instanceof TypeElement) {
+            if (element.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            element = element.getEnclosingElement();
+        }
+
+        return element instanceof PackageElement;
+    }
+
+    private boolean canTakeAClaim(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            // Fine if its wrapper is: the argument is only replaced when the claim is there, and AuthorizationPlan
+            // widens a smaller number to fit a long or double. Same check as AuthorizationPlan.
+            return canTakeAClaim(types.boxedClass((PrimitiveType) type).asType());
+        }
+
+        if (type.getKind() != TypeKind.DECLARED) {
+            return false; // Arrays.
+        }
+
+        return CLAIM_TYPES.stream()
+                .map(name -> types.erasure(elements.getTypeElement(name).asType()))
+                .anyMatch(claimType -> types.isSubtype(claimType, type));
+    }
+
+    private boolean isCharSequence(TypeMirror type) {
+        return types.isSubtype(type, elements.getTypeElement("java.lang.CharSequence").asType());
+    }
+
+    private boolean isType(TypeMirror type, String name) {
+        return types.isSameType(type, elements.getTypeElement(name).asType());
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            TypeElement annotationType = (TypeElement) annotation.getAnnotationType().asElement();
+            if (annotationType.getQualifiedName().contentEquals(name)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private Object value(AnnotationMirror annotation, String name) {
+        for (var entry : elements.getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        throw new IllegalStateException("@" + annotation.getAnnotationType() + " has no " + name + "()");
+    }
+
+    private void error(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,225 @@
+package space.crickets.authorize.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import space.crickets.authorize.aop.AuthorizationDescriptor;
+import space.crickets.authorize.aop.MethodDescriptor;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs javac, with the processor, over small sample controllers.
+ */
+public class AuthorizeProcessorTest {
+
+    @Rule
+    public TemporaryFolder output = new TemporaryFolder();
+
+    @Test
+    public void whenMethodsAreFine() throws Exception {
+        Compilation compilation = compile("sample.HelloController", """
+                package sample;
+
+                import space.crickets.authorize.Authorize;
+                import space.crickets.authorize.BindClaim;
+                import space.crickets.authorize.Jwt;
+                import space.crickets.authorize.MatchClaim;
+                import java.util.List;
+
+                public class HelloController {
+                    @Authorize(scopes = {"greeting.read", "greeting.write"})
+                    public String greet(
+                            @MatchClaim(value = "email", ignoreCase = true) String email,
+                            @Jwt String authorization,
+                            @BindClaim("groups") List<String> groups,
+                            @MatchClaim("age") long age
+                    ) {
+                        return "Hello";
+                    }
+
+                    @Authorize
+                    public String greet(@Jwt String authorization) {
+                        return "Hello";
+                    }
+
+                    public static class Nested {
+                        @Authorize
+                        public String greet(@Jwt String authorization) {
+                            return "Hello";
+                        }
+                    }
+
+                    private static class Hidden {
+                        @Authorize
+                        public String greet(@Jwt String authorization) {
+                            return "Hello";
+                        }
+                    }
+                }
+                """);
+
+        assertTrue(compilation.errors().toString(), compilation.succeeded());
+        assertEquals(
+                List.of("sample.HelloController_AuthorizationDescriptor", "sample.HelloController_Nested_AuthorizationDescriptor"),
+                Files.readAllLines(output.getRoot().toPath().resolve(AuthorizeProcessor.SERVICES_FILE))
+        ); // Not Hidden. It's left to reflection.
+
+        try (URLClassLoader classLoader = compilation.classLoader()) {
+            Class<?> controller = classLoader.loadClass("sample.HelloController");
+            AuthorizationDescriptor descriptor = (AuthorizationDescriptor) classLoader
+                    .loadClass("sample.HelloController_AuthorizationDescriptor")
+                    .getConstructor()
+                    .newInstance();
+
+            assertEquals(controller, descriptor.declaringClass());
+            assertEquals(2, descriptor.methods().size());
+
+            MethodDescriptor greet = descriptor.methods().stream()
+                    .filter(method -> method.parameterTypes().length == 4)
+                    .findFirst()
+                    .orElseThrow();
+
+            assertEquals("greet", greet.name());
+            assertArrayEquals(new Class<?>[] {String.class, String.class, List.class, long.class}, greet.parameterTypes());
+            assertEquals(1, greet.jwtIndex());
+            assertArrayEquals(new String[] {"greeting.read", "greeting.write"}, greet.scopes());
+            assertArrayEquals(new int[] {0, 3}, greet.matchClaimIndices());
+            assertArrayEquals(new String[] {"email", "age"}, greet.matchClaimNames());
+            assertArrayEquals(new boolean[] {true, false}, greet.matchClaimIgnoreCase());
+            assertArrayEquals(new int[] {2}, greet.bindClaimIndices());
+            assertArrayEquals(new String[] {"groups"}, greet.bindClaimNames());
+
+            // Same lookup AuthorizationDescriptors does.
+            controller.getMethod("greet", greet.parameterTypes());
+        }
+    }
+
+    @Test
+    public void whenJwtIsMissing() throws Exception {
+        Compilation compilation = compile("sample.NoJwtController", """
+                package sample;
+
+                import space.crickets.authorize.Authorize;
+
+                public class NoJwtController {
+                    @Authorize
+                    public String greet(String authorization) {
+                        return "Hello";
+                    }
+                }
+                """);
+
+        assertFalse(compilation.succeeded());
+        assertTrue(compilation.errors().toString(), compilation.hasError("needs a @Jwt parameter"));
+        assertFalse(new File(output.getRoot(), AuthorizeProcessor.SERVICES_FILE).exists());
+    }
+
+    @Test
+    public void whenAnnotationsAreOnTheWrongTypes() throws Exception {
+        Compilation compilation = compile("sample.BadController", """
+                package sample;
+
+                import space.crickets.authorize.Authorize;
+                import space.crickets.authorize.BindClaim;
+                import space.crickets.authorize.Jwt;
+                import space.crickets.authorize.MatchClaim;
+
+                public class BadController {
+                    @Authorize
+                    public String jwtNotAString(@Jwt byte[] authorization) {
+                        return "Hello";
+                    }
+
+                    @Authorize
+                    public String charClaim(@Jwt String authorization, @BindClaim("initial") char initial) {
+                        return "Hello";
+                    }
+
+                    @Authorize
+                    public String primitiveClaim(@Jwt String authorization, @BindClaim("age") int age) {
+                        return "Hello"; // Fine. An Integer claim fits.
+                    }
+
+                    @Authorize
+                    public String longClaim(@Jwt String authorization, @BindClaim("age") long age) {
+                        return "Hello"; // Fine. An Integer claim gets widened.
+                    }
+
+                    @Authorize
+                    public String ignoreCaseOnANumber(@Jwt String authorization, @MatchClaim(value = "age", ignoreCase = true) Integer age) {
+                        return "Hello";
+                    }
+
+                    @Authorize
+                    public String objectClaim(@Jwt String authorization, @BindClaim("anything") Object anything) {
+                        return "Hello"; // Fine.
+                    }
+                }
+                """);
+
+        assertFalse(compilation.succeeded());
+        assertTrue(compilation.errors().toString(), compilation.hasError("@Jwt parameter has to be a String"));
+        assertTrue(compilation.errors().toString(), compilation.hasError("@BindClaim parameter can't take a claim value"));
+        assertTrue(compilation.errors().toString(), compilation.hasError("only works on String parameters"));
+        assertEquals(3, compilation.errors().size());
+    }
+
+    private record Compilation(boolean succeeded, List<Diagnostic<? extends JavaFileObject>> errors, File output) {
+        boolean hasError(String text) {
+            return errors.stream().anyMatch(error -> error.getMessage(null).contains(text));
+        }
+
+        URLClassLoader classLoader() throws IOException {
+            return new URLClassLoader(new URL[] {output.toURI().toURL()}, AuthorizeProcessorTest.class.getClassLoader());
+        }
+    }
+
+    private Compilation compile(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className.replace('.', '/') + ".java"),
+                JavaFileObject.Kind.SOURCE
+        ) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        List<String> options = List.of(
+                "-classpath", System.getProperty("java.class.path"),
+                "-d", output.getRoot().getPath(),
+                "-s", output.newFolder("generated").getPath()
+        );
+
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, List.of(file));
+        task.setProcessors(List.of(new AuthorizeProcessor()));
+        boolean succeeded = task.call();
+
+        List<Diagnostic<? extends JavaFileObject>> errors = diagnostics.getDiagnostics().stream()
+                .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+                .toList();
+
+        return new Compilation(succeeded, errors, output.getRoot());
+    }
+}